@@ -0,0 +1,27 @@
+package com.fdmgroup.tdd.Calculator;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The BenchmarkRunner class runs the benchmarks with the GC profiler, so every result reports allocation
+ * per operation (gc.alloc.rate.norm) alongside the time.
+ * Usage: java -jar target/benchmarks.jar [JMH options], for example -p operands=256 CalculatorBenchmark
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException 
+    {
+        // Command line options take precedence; the GC profiler is always added
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
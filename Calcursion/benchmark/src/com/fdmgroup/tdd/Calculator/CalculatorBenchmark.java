@@ -0,0 +1,105 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CalculatorBenchmark class measures Calculator.evaluate end to end for a range of expression sizes and shapes,
+ * along with the parse and evaluate stages of the compiled pipeline on their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculatorBenchmark {
+
+    @Param({"16", "256", "4096"})
+    private int operands;
+
+    @Param({"FLAT", "NESTED", "POWER", "MIXED"})
+    private ExpressionShape shape;
+
+    private String expression;
+    private Calculator calculator;
+    private Calculator cachedCalculator;
+    private Calculator stackSafeCalculator;
+    private CompiledExpression compiled;
+
+    @Setup
+    public void setUp() 
+    {
+        expression = shape.generate(operands);
+        calculator = new Calculator();
+        cachedCalculator = new Calculator(16);
+        stackSafeCalculator = new Calculator(EvaluationMode.STACK_SAFE);
+        compiled = calculator.compile(expression);
+    }
+
+    
+    
+    /**
+     * Parses and evaluates the expression on every call.
+     */
+    @Benchmark
+    public double evaluate() 
+    {
+        return calculator.evaluate(expression);
+    }
+
+    
+    
+    /**
+     * Evaluates through the expression cache, so only the first call parses.
+     */
+    @Benchmark
+    public double evaluateCached() 
+    {
+        return cachedCalculator.evaluate(expression);
+    }
+
+    
+    
+    /**
+     * Parses and evaluates the expression with the postfix program instead of the tree.
+     */
+    @Benchmark
+    public double evaluateStackSafe() 
+    {
+        return stackSafeCalculator.evaluate(expression);
+    }
+
+    
+    
+    /**
+     * The parse stage on its own.
+     */
+    @Benchmark
+    public CompiledExpression parse() 
+    {
+        return calculator.compile(expression);
+    }
+
+    
+    
+    /**
+     * The evaluate stage on its own, on an already parsed expression.
+     */
+    @Benchmark
+    public double evaluateCompiled() 
+    {
+        return compiled.evaluate();
+    }
+}
@@ -0,0 +1,72 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ColumnarBenchmark class compares evaluating one formula over many rows a row at a time
+ * with evaluating it over whole columns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarBenchmark {
+
+    @Param({"1000", "100000"})
+    private int rows;
+
+    @Param({"x*y+3*x-y/2", "x*y+x^2-y^(1/2)"})
+    private String expression;
+
+    private CompiledExpression compiled;
+    private double[][] columns;
+    private double[] out;
+
+    @Setup
+    public void setUp() 
+    {
+        compiled = new Calculator().compile(expression, "x", "y");
+        columns = new double[2][rows];
+        for (int row = 0; row < rows; row++) 
+        {
+            columns[0][row] = row * 0.5 + 1;
+            columns[1][row] = row % 13 + 1;
+        }
+        out = new double[rows];
+    }
+
+    
+    
+    @Benchmark
+    public double[] rowByRow() 
+    {
+        for (int row = 0; row < rows; row++) 
+        {
+            out[row] = compiled.evaluate(columns[0][row], columns[1][row]);
+        }
+        return out;
+    }
+
+    
+    
+    @Benchmark
+    public double[] columnar() 
+    {
+        compiled.evaluate(columns, out);
+        return out;
+    }
+}
@@ -0,0 +1,97 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The ExpressionShape enum generates benchmark expressions of a given number of operands.
+ * Each shape exercises a different part of the pipeline.
+ */
+public enum ExpressionShape {
+
+    /** A flat chain of additions and subtractions: 1+2-3+4... */
+    FLAT {
+        @Override
+        void appendOperand(StringBuilder builder, int index) 
+        {
+            builder.append(index % 2 == 0 ? '+' : '-').append(index % 97 + 1);
+        }
+    },
+
+    /** Nested parenthesised products: (1*(2+(3*(4+...)))) */
+    NESTED {
+        @Override
+        String generate(int operands) 
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int index = 0; index < operands; index++) 
+            {
+                builder.append('(').append(index % 9 + 1).append(index % 2 == 0 ? '*' : '+');
+            }
+            builder.append('1');
+            for (int index = 0; index < operands; index++) 
+            {
+                builder.append(')');
+            }
+            return builder.toString();
+        }
+    },
+
+    /** Integer, decimal and fractional powers: +2^3+1.5^2.5+8^(1/3)... */
+    POWER {
+        @Override
+        void appendOperand(StringBuilder builder, int index) 
+        {
+            switch (index % 3) 
+            {
+                case 0: builder.append("+2^").append(index % 10); break;
+                case 1: builder.append("+1.5^2.5"); break;
+                default: builder.append("+8^(1/3)"); break;
+            }
+        }
+    },
+
+    /** A mix of all operators with negative numbers: +3*-2/4-5^2*(-1)... */
+    MIXED {
+        @Override
+        void appendOperand(StringBuilder builder, int index) 
+        {
+            switch (index % 4) 
+            {
+                case 0: builder.append('+').append(index % 7 + 1).append("*-2"); break;
+                case 1: builder.append('/').append(index % 5 + 1); break;
+                case 2: builder.append("-5^2*(-1)"); break;
+                default: builder.append("+(0.5-").append(index % 3).append(')'); break;
+            }
+        }
+    };
+
+    
+    
+    /**
+     * Generates an expression with the given number of operands.
+     *
+     * @param operands The number of operands.
+     * @return The expression.
+     */
+    String generate(int operands) 
+    {
+        // Start with 1 so every shape begins with an operand
+        StringBuilder builder = new StringBuilder("1");
+        for (int index = 1; index < operands; index++) 
+        {
+            appendOperand(builder, index);
+        }
+        return builder.toString();
+    }
+
+    
+    
+    /**
+     * Appends one operator and operand to the expression.
+     *
+     * @param builder The expression so far.
+     * @param index   The index of the operand.
+     */
+    void appendOperand(StringBuilder builder, int index) 
+    {
+        throw new UnsupportedOperationException();
+    }
+}
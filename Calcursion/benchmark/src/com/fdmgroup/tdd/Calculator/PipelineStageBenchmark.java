@@ -0,0 +1,89 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The PipelineStageBenchmark class measures each stage of the recursive ExpressionEvaluator pipeline on its own:
+ * sanitizing, adding parentheses around negative numbers, finding the last operator, and the whole evaluation.
+ * The stages recurse once per character, so the sizes stay small enough for the default thread stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineStageBenchmark {
+
+    @Param({"4", "16", "64"})
+    private int operands;
+
+    @Param({"FLAT", "NESTED", "POWER", "MIXED"})
+    private ExpressionShape shape;
+
+    private String expression;
+    private String sanitized;
+    private String parenthesised;
+    private ExpressionSanitizer sanitizer;
+    private NegativeNumberParenthesesAdder parenthesesAdder;
+    private OperatorFinder operatorFinder;
+    private ExpressionEvaluator evaluator;
+
+    @Setup
+    public void setUp() 
+    {
+        sanitizer = new ExpressionSanitizer();
+        parenthesesAdder = new NegativeNumberParenthesesAdder();
+        operatorFinder = new OperatorFinder();
+        evaluator = new ExpressionEvaluator();
+
+        // Each stage gets the output of the stage before it
+        expression = shape.generate(operands).replace("+", " + ");
+        sanitized = sanitizer.sanitizeInput(expression);
+        parenthesised = parenthesesAdder.addParentheses(sanitized);
+    }
+
+    
+    
+    @Benchmark
+    public String sanitize() 
+    {
+        return sanitizer.sanitizeInput(expression);
+    }
+
+    
+    
+    @Benchmark
+    public String addParentheses() 
+    {
+        return parenthesesAdder.addParentheses(sanitized);
+    }
+
+    
+    
+    @Benchmark
+    public int findLastOperator() 
+    {
+        return operatorFinder.findLastOperatorIndex(parenthesised, parenthesised.length() - 1, 0, '+', '-');
+    }
+
+    
+    
+    @Benchmark
+    public double evaluateExpression() 
+    {
+        return evaluator.evaluateExpression(parenthesised);
+    }
+}
@@ -0,0 +1,87 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The PowerCalculatorBenchmark class measures PowerCalculator: integer powers by squaring against the previous
+ * implementation that recursed once per unit of the exponent, and decimal and fractional powers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PowerCalculatorBenchmark {
+
+    private static final double BASE = 1.0000001;
+
+    @Param({"10", "100", "1000"})
+    private int exponent;
+
+    private PowerCalculator powerCalculator;
+
+    @Setup
+    public void setUp() 
+    {
+        powerCalculator = new PowerCalculator();
+    }
+
+    
+    
+    @Benchmark
+    public double integerPower() 
+    {
+        return powerCalculator.power(BASE, exponent);
+    }
+
+    
+    
+    @Benchmark
+    public double linearIntegerPower() 
+    {
+        return linearPower(BASE, exponent);
+    }
+
+    
+    
+    @Benchmark
+    public double decimalPower() 
+    {
+        return powerCalculator.power(BASE * exponent, 2.5);
+    }
+
+    
+    
+    @Benchmark
+    public double fractionalPower() 
+    {
+        return powerCalculator.power(BASE * exponent, 2, 3);
+    }
+
+    
+    
+    /**
+     * The previous PowerCalculator.power(double, int), which recursed once per unit of the exponent.
+     */
+    private static double linearPower(double base, int exponent) 
+    {
+        if (exponent == 0) 
+        {
+            return 1.0;
+        }
+        return base * linearPower(base, exponent - 1);
+    }
+}
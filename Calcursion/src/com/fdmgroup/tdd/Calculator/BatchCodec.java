@@ -0,0 +1,347 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The BatchCodec class encodes batches of calculations into length-prefixed binary frames,
+ * evaluates request frames and encodes their results as a packed block of doubles.
+ * All values are in the byte order of the buffers they are read from and written to.
+ * <p>
+ * A request frame is an int holding the number of bytes that follow, a type byte, and then either
+ * <ul>
+ * <li>EXPRESSIONS: an int count and, for each expression, an int length and that many ISO-8859-1 bytes; or</li>
+ * <li>BINDINGS: the int id of a registered expression, an int row count, an int column count,
+ * and one column of doubles per variable, each holding one value per row.</li>
+ * </ul>
+ * A response frame is an int holding the number of bytes that follow, an int result count,
+ * an int failure count and one double per result. An expression that cannot be evaluated yields NaN
+ * and is counted as a failure.
+ * <p>
+ * Expressions are parsed straight from the request buffer, and bindings and results are copied
+ * in bulk between the buffers and double arrays, so no String is created per value.
+ * A codec keeps its own parser and registered expressions and is not thread-safe; use one per connection.
+ */
+public final class BatchCodec {
+
+    /** The type byte of a frame holding expressions. */
+    public static final byte EXPRESSIONS = 1;
+
+    /** The type byte of a frame holding variable bindings for a registered expression. */
+    public static final byte BINDINGS = 2;
+
+    private static final int RESPONSE_HEADER_SIZE = 12;
+
+    private final Calculator calculator;
+    private final ExpressionParser parser = new ExpressionParser();
+    private final SyntaxValidator validator = new SyntaxValidator();
+    private final ByteBufferCharSequence view = new ByteBufferCharSequence();
+    private final List<CompiledExpression> registered = new ArrayList<CompiledExpression>();
+    private double[] results = new double[0];
+
+    /**
+     * Creates a codec evaluating expression frames with the given calculator.
+     *
+     * @param calculator The calculator whose evaluation mode is used; its cache is bypassed.
+     */
+    public BatchCodec(Calculator calculator) 
+    {
+        this.calculator = calculator;
+    }
+
+    
+    
+    /**
+     * Registers a compiled expression so that BINDINGS frames can refer to it by id.
+     *
+     * @param expression The compiled expression.
+     * @return The id of the expression, counting up from 0.
+     */
+    public int register(CompiledExpression expression) 
+    {
+        registered.add(expression);
+        return registered.size() - 1;
+    }
+
+    
+    
+    /**
+     * Appends an EXPRESSIONS frame to the buffer.
+     *
+     * @param expressions The expressions, written in ISO-8859-1.
+     * @param out         The buffer to write the frame to.
+     * @throws IllegalArgumentException If an expression has a character outside ISO-8859-1.
+     */
+    public static void encodeExpressions(List<? extends CharSequence> expressions, ByteBuffer out) 
+    {
+        int start = out.position();
+        out.putInt(0).put(EXPRESSIONS).putInt(expressions.size());
+        for (CharSequence expression : expressions) 
+        {
+            out.putInt(expression.length());
+            for (int i = 0; i < expression.length(); i++) 
+            {
+                char ch = expression.charAt(i);
+                if (ch > 0xFF) 
+                {
+                    throw new IllegalArgumentException("Cannot encode character '" + ch + "' in " + expression);
+                }
+                out.put((byte) ch);
+            }
+        }
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    
+    
+    /**
+     * Appends a BINDINGS frame to the buffer.
+     *
+     * @param expressionId The id returned by register.
+     * @param columns      The variable values, one column per variable.
+     * @param rowCount     The number of rows to write from each column.
+     * @param out          The buffer to write the frame to.
+     */
+    public static void encodeBindings(int expressionId, double[][] columns, int rowCount, ByteBuffer out) 
+    {
+        out.putInt(1 + 12 + columns.length * rowCount * Double.BYTES).put(BINDINGS);
+        out.putInt(expressionId).putInt(rowCount).putInt(columns.length);
+        for (double[] column : columns) 
+        {
+            out.asDoubleBuffer().put(column, 0, rowCount);
+            out.position(out.position() + rowCount * Double.BYTES);
+        }
+    }
+
+    
+    
+    /**
+     * Checks if the buffer holds a whole frame from its position on, so a reader knows when to stop reading.
+     *
+     * @param in The buffer.
+     * @return True if the length prefix and all the bytes it announces are present.
+     */
+    public static boolean hasFrame(ByteBuffer in) 
+    {
+        return in.remaining() >= 4 && in.remaining() - 4 >= in.getInt(in.position());
+    }
+
+    
+    
+    /**
+     * Returns the size of the response frame holding the given number of results.
+     *
+     * @param resultCount The number of results.
+     * @return The size in bytes.
+     */
+    public static int responseSize(int resultCount) 
+    {
+        return RESPONSE_HEADER_SIZE + resultCount * Double.BYTES;
+    }
+
+    
+    
+    /**
+     * Reads one request frame, evaluates it and appends the response frame to the output.
+     * Every count and length in the frame is checked against the frame's length prefix before anything is
+     * allocated or read, and a frame that is rejected is still skipped, so the next frame can be read.
+     *
+     * @param request  The buffer holding the request frame at its position; it is advanced past the frame.
+     * @param response The buffer to write the response frame to; it must have responseSize(results) bytes left.
+     * @return The number of results written.
+     * @throws IllegalArgumentException  If the frame is malformed, has an unknown type, refers to an unregistered
+     *                                   expression or has more results than the response buffer can hold.
+     * @throws BufferUnderflowException  If the request buffer does not hold the whole frame; it is not advanced.
+     */
+    public int evaluate(ByteBuffer request, ByteBuffer response) 
+    {
+        if (!hasFrame(request)) 
+        {
+            throw new BufferUnderflowException();
+        }
+        int length = request.getInt();
+        if (length < 1) 
+        {
+            // Without a usable length the frame cannot be skipped; only its prefix is consumed
+            throw new IllegalArgumentException("Malformed frame length " + length);
+        }
+        int end = request.position() + length;
+        try 
+        {
+            byte type = request.get();
+            int failures;
+            int count;
+            if (type == EXPRESSIONS) 
+            {
+                count = readCount(request, end, 4, "Expression count");
+                checkResponseSpace(response, count);
+                failures = evaluateExpressions(request, end, count);
+            }
+            else if (type == BINDINGS) 
+            {
+                count = evaluateBindings(request, end, response);
+                failures = 0;
+            }
+            else 
+            {
+                throw new IllegalArgumentException("Unknown frame type " + type);
+            }
+
+            response.putInt(responseSize(count) - 4).putInt(count).putInt(failures);
+            response.asDoubleBuffer().put(results, 0, count);
+            response.position(response.position() + count * Double.BYTES);
+            return count;
+        }
+        finally 
+        {
+            request.position(end);
+        }
+    }
+
+    
+    
+    /**
+     * Parses and evaluates each expression in place in the request buffer.
+     *
+     * @return The number of expressions that failed.
+     */
+    private int evaluateExpressions(ByteBuffer request, int end, int count) 
+    {
+        double[] values = ensureResults(count);
+        int failures = 0;
+        for (int i = 0; i < count; i++) 
+        {
+            int length = readCount(request, end, 1, "Expression length");
+            EvaluationResult result = calculator.tryEvaluate(validator, parser, view.reset(request, request.position(), length));
+            values[i] = result.getValue();
+            if (!result.isSuccess()) 
+            {
+                failures++;
+            }
+            request.position(request.position() + length);
+        }
+        return failures;
+    }
+
+    
+    
+    /**
+     * Copies the binding columns out of the request buffer and evaluates the registered expression over them.
+     *
+     * @return The number of rows.
+     */
+    private int evaluateBindings(ByteBuffer request, int end, ByteBuffer response) 
+    {
+        if (end - request.position() < 12) 
+        {
+            throw new IllegalArgumentException("Malformed frame: bindings header is truncated");
+        }
+        int expressionId = request.getInt();
+        if (expressionId < 0 || expressionId >= registered.size()) 
+        {
+            throw new IllegalArgumentException("No expression registered with id " + expressionId);
+        }
+        int rowCount = request.getInt();
+        int columnCount = request.getInt();
+        if (rowCount < 0 || columnCount < 0 || (long) rowCount * columnCount * Double.BYTES > end - request.position()) 
+        {
+            throw new IllegalArgumentException("Malformed frame: " + columnCount + " columns of " + rowCount + " rows do not fit in the frame");
+        }
+        // Without columns the row count is not backed by any bytes, so the response buffer bounds it
+        checkResponseSpace(response, rowCount);
+
+        double[][] columns = new double[columnCount][rowCount];
+        for (double[] column : columns) 
+        {
+            request.asDoubleBuffer().get(column);
+            request.position(request.position() + rowCount * Double.BYTES);
+        }
+
+        // The columnar evaluation writes one result per element of its output array
+        double[] values = results.length == rowCount ? results : new double[rowCount];
+        registered.get(expressionId).evaluate(columns, values);
+        results = values;
+        return rowCount;
+    }
+
+    
+    
+    /**
+     * Reads a count or length and checks that its elements fit in the rest of the frame.
+     *
+     * @param end         The offset just after the frame.
+     * @param elementSize The smallest number of bytes each element takes.
+     * @param name        What the value counts, for the error message.
+     * @return The value read.
+     * @throws IllegalArgumentException If the value is negative or its elements would run past the frame.
+     */
+    private static int readCount(ByteBuffer request, int end, int elementSize, String name) 
+    {
+        if (end - request.position() < 4) 
+        {
+            throw new IllegalArgumentException("Malformed frame: " + name + " is truncated");
+        }
+        int count = request.getInt();
+        if (count < 0 || (long) count * elementSize > end - request.position()) 
+        {
+            throw new IllegalArgumentException("Malformed frame: " + name + " " + count + " does not fit in the frame");
+        }
+        return count;
+    }
+
+    
+    
+    private static void checkResponseSpace(ByteBuffer response, int count) 
+    {
+        if (RESPONSE_HEADER_SIZE + (long) count * Double.BYTES > response.remaining()) 
+        {
+            throw new IllegalArgumentException("Frame has " + count + " results but the response buffer has room for "
+                    + (response.remaining() - RESPONSE_HEADER_SIZE) / Double.BYTES);
+        }
+    }
+
+    
+    
+    private double[] ensureResults(int count) 
+    {
+        if (results.length < count) 
+        {
+            results = new double[count];
+        }
+        return results;
+    }
+
+    
+    
+    /**
+     * Reads one response frame into an array.
+     *
+     * @param response The buffer holding the response frame at its position; it is advanced past the frame.
+     * @param results  The array receiving the results; it must hold at least the frame's result count.
+     * @return The number of results read.
+     */
+    public static int decodeResults(ByteBuffer response, double[] results) 
+    {
+        response.getInt();
+        int count = response.getInt();
+        response.getInt();
+        response.asDoubleBuffer().get(results, 0, count);
+        response.position(response.position() + count * Double.BYTES);
+        return count;
+    }
+
+    
+    
+    /**
+     * Returns the failure count of the response frame at the buffer's position, without moving it.
+     *
+     * @param response The buffer holding a response frame.
+     * @return The number of expressions of the batch that could not be evaluated.
+     */
+    public static int failureCount(ByteBuffer response) 
+    {
+        return response.getInt(response.position() + 8);
+    }
+}
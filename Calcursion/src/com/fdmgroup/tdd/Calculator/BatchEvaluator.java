@@ -0,0 +1,155 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The BatchEvaluator class evaluates a list of expressions in parallel on a ForkJoinPool.
+ * The list is split recursively into ranges, and an expression that appears several times
+ * in the same batch is only evaluated once: each expression is linked to the index of its first occurrence
+ * by a table of ints, so no map entry, boxed result or per-batch key copy is created.
+ */
+class BatchEvaluator {
+
+    /** Ranges with at most this many expressions are evaluated on the current thread. */
+    static final int SEQUENTIAL_THRESHOLD = 1024;
+
+    private final ICalculator calculator;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a batch evaluator.
+     *
+     * @param calculator The calculator evaluating each distinct expression.
+     * @param pool       The pool running the range tasks.
+     */
+    BatchEvaluator(ICalculator calculator, ForkJoinPool pool) 
+    {
+        this.calculator = calculator;
+        this.pool = pool;
+    }
+
+    
+    
+    /**
+     * Evaluates the expressions into the results array, keeping the input order.
+     *
+     * @param expressions The expressions to evaluate.
+     * @param results     The array receiving the result of expression i at index i.
+     */
+    void evaluateAll(List<String> expressions, double[] results) 
+    {
+        if (results.length < expressions.size()) 
+        {
+            throw new IllegalArgumentException("Result array of length " + results.length + " cannot hold " + expressions.size() + " results");
+        }
+
+        int[] firstOccurrences = findFirstOccurrences(expressions);
+        RangeTask task = new RangeTask(expressions, results, firstOccurrences, 0, expressions.size());
+        if (expressions.size() <= SEQUENTIAL_THRESHOLD) 
+        {
+            task.compute();
+        }
+        else 
+        {
+            pool.invoke(task);
+        }
+
+        // Only first occurrences were evaluated; repeats copy their result
+        for (int i = 0; i < firstOccurrences.length; i++) 
+        {
+            if (firstOccurrences[i] != i) 
+            {
+                results[i] = results[firstOccurrences[i]];
+            }
+        }
+    }
+
+    
+    
+    /**
+     * Links every expression to the first occurrence of the same text, using an open-addressing table
+     * that holds the index of each distinct expression plus one, with zero marking a free slot.
+     *
+     * @param expressions The expressions.
+     * @return For each index, the index of the first expression equal to the one at that index.
+     */
+    static int[] findFirstOccurrences(List<String> expressions) 
+    {
+        int size = expressions.size();
+        int[] firstOccurrences = new int[size];
+        // At least twice as many slots as expressions keeps the probe sequences short
+        int[] table = new int[Integer.highestOneBit(Math.max(2 * size - 1, 1)) << 1];
+        int mask = table.length - 1;
+        for (int i = 0; i < size; i++) 
+        {
+            String expression = expressions.get(i);
+            int hash = expression.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (true) 
+            {
+                int entry = table[slot];
+                if (entry == 0) 
+                {
+                    table[slot] = i + 1;
+                    firstOccurrences[i] = i;
+                    break;
+                }
+                if (expressions.get(entry - 1).equals(expression)) 
+                {
+                    firstOccurrences[i] = entry - 1;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return firstOccurrences;
+    }
+
+    
+    
+    /**
+     * Evaluates one range of the batch, splitting it in half while it is larger than the threshold.
+     */
+    private final class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> expressions;
+        private final double[] results;
+        private final int[] firstOccurrences;
+        private final int start;
+        private final int end;
+
+        RangeTask(List<String> expressions, double[] results, int[] firstOccurrences, int start, int end) 
+        {
+            this.expressions = expressions;
+            this.results = results;
+            this.firstOccurrences = firstOccurrences;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() 
+        {
+            // Split the range recursively until it is small enough to evaluate directly
+            if (end - start > SEQUENTIAL_THRESHOLD) 
+            {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RangeTask(expressions, results, firstOccurrences, start, middle), 
+                        new RangeTask(expressions, results, firstOccurrences, middle, end));
+                return;
+            }
+
+            for (int i = start; i < end; i++) 
+            {
+                if (firstOccurrences[i] == i) 
+                {
+                    results[i] = calculator.evaluate(expressions.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The BinaryOperationNode class represents an arithmetic operation between two operands in a compiled expression.
+ */
+final class BinaryOperationNode extends ExpressionNode {
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    private final char operator;
+    private final ExpressionNode left;
+    private final ExpressionNode right;
+
+    /**
+     * Creates a node applying an operator to two operands.
+     *
+     * @param operator The arithmetic operator (+, -, *, /, ^).
+     * @param left     The left operand.
+     * @param right    The right operand.
+     */
+    BinaryOperationNode(char operator, ExpressionNode left, ExpressionNode right) 
+    {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    
+    
+    char getOperator() 
+    {
+        return operator;
+    }
+
+    
+    
+    ExpressionNode getLeft() 
+    {
+        return left;
+    }
+
+    
+    
+    ExpressionNode getRight() 
+    {
+        return right;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        return apply(operator, left.evaluate(variables), right.evaluate(variables));
+    }
+
+    
+    
+    /**
+     * Performs the arithmetic operation based on the operator.
+     *
+     * @param operator     The arithmetic operator.
+     * @param leftOperand  The value of the left operand.
+     * @param rightOperand The value of the right operand.
+     * @return The result of the operation.
+     */
+    static double apply(char operator, double leftOperand, double rightOperand) 
+    {
+        switch (operator) 
+        {
+            case '+':
+                return leftOperand + rightOperand;
+            case '-':
+                return leftOperand - rightOperand;
+            case '*':
+                return leftOperand * rightOperand;
+            case '/':
+                return leftOperand / rightOperand;
+            case '^':
+                return POWER_CALCULATOR.power(leftOperand, rightOperand);
+            default:
+                return 0;
+        }
+    }
+}
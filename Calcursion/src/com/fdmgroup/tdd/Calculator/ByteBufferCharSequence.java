@@ -0,0 +1,81 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The ByteBufferCharSequence class is a reusable CharSequence view over a range of a ByteBuffer.
+ * Like ByteCharSequence, each byte is read as one ISO-8859-1 character; bytes are read with absolute gets,
+ * so the view works over heap and direct buffers alike and never moves the buffer's position.
+ */
+final class ByteBufferCharSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Points the view at a new range.
+     *
+     * @param buffer The backing buffer.
+     * @param offset The absolute index of the first character.
+     * @param length The number of characters.
+     * @return This view.
+     */
+    ByteBufferCharSequence reset(ByteBuffer buffer, int offset, int length) 
+    {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    
+    
+    @Override
+    public int length() 
+    {
+        return length;
+    }
+
+    
+    
+    @Override
+    public char charAt(int index) 
+    {
+        if (index < 0 || index >= length) 
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for length " + length);
+        }
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    
+    
+    /**
+     * Copies the range into a new String, one ISO-8859-1 character per byte.
+     * The parser and validator call it for any token whose text they need, such as a variable name or the token
+     * quoted in an error message, so each of those tokens costs one allocation.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) 
+    {
+        if (start < 0 || end > length || start > end) 
+        {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of range for length " + length);
+        }
+        char[] characters = new char[end - start];
+        for (int i = 0; i < characters.length; i++) 
+        {
+            characters[i] = charAt(start + i);
+        }
+        return new String(characters);
+    }
+
+    
+    
+    @Override
+    public String toString() 
+    {
+        return subSequence(0, length).toString();
+    }
+}
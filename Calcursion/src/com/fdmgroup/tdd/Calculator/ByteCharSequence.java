@@ -0,0 +1,76 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ByteCharSequence class is a reusable CharSequence view over a range of a byte array.
+ * Each byte is read as one ISO-8859-1 character, which covers the ASCII that expressions are written in,
+ * so lines read from a channel can be parsed without decoding them into a String first.
+ */
+final class ByteCharSequence implements CharSequence {
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    /**
+     * Points the view at a new range.
+     *
+     * @param bytes  The backing array.
+     * @param offset The index of the first character.
+     * @param length The number of characters.
+     * @return This view.
+     */
+    ByteCharSequence reset(byte[] bytes, int offset, int length) 
+    {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    
+    
+    @Override
+    public int length() 
+    {
+        return length;
+    }
+
+    
+    
+    @Override
+    public char charAt(int index) 
+    {
+        if (index < 0 || index >= length) 
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for length " + length);
+        }
+        return (char) (bytes[offset + index] & 0xFF);
+    }
+
+    
+    
+    /**
+     * Copies the range into a new String, one ISO-8859-1 character per byte.
+     * The parser and validator call it for any token whose text they need, such as a variable name or the token
+     * quoted in an error message, so each of those tokens costs one allocation.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) 
+    {
+        if (start < 0 || end > length || start > end) 
+        {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of range for length " + length);
+        }
+        return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    
+    
+    @Override
+    public String toString() 
+    {
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,518 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BytecodeCompiler class turns an expression tree into a generated JVM class.
+ * The class implements ExpressionFunction with a single straight-line method: literals become constant pool loads,
+ * variables become array reads and +, -, *, / become the matching double instructions, so HotSpot can inline
+ * and optimize the whole expression like hand-written code. Exponentiation calls back into PowerCalculator.
+ * The class is defined as a hidden class, which is unloaded once the expression is no longer used.
+ */
+class BytecodeCompiler {
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    private static final String CLASS_NAME = "com/fdmgroup/tdd/Calculator/GeneratedExpression";
+    private static final int MAXIMUM_CODE_LENGTH = 65535;
+    private static final int MAXIMUM_CONSTANT_POOL_SIZE = 65535;
+    // Deeper trees are left to the interpreter rather than risk overflowing the stack while generating
+    private static final int MAXIMUM_DEPTH = 1024;
+
+    // Class file constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // Opcodes used by the generated code
+    private static final int ICONST_0 = 0x03;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+    private final Map<Object, Integer> constants = new HashMap<Object, Integer>();
+    private int constantPoolSize = 1;
+
+    private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+    private final DataOutputStream code = new DataOutputStream(codeBytes);
+    private int stackDepth;
+    private int maximumStackDepth;
+
+    /**
+     * Generates and loads a class evaluating the expression tree.
+     * A compiler instance generates a single class.
+     *
+     * @param root The root node of the expression tree.
+     * @return An instance of the generated class, or null if the tree contains a node the compiler cannot
+     *         translate or is too large for a single JVM method.
+     */
+    ExpressionFunction compile(ExpressionNode root) 
+    {
+        try 
+        {
+            if (!emit(root, 0)) 
+            {
+                return null;
+            }
+            code.writeByte(DRETURN);
+
+            byte[] classBytes = writeClass();
+            if (classBytes == null) 
+            {
+                return null;
+            }
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return (ExpressionFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }
+        catch (RuntimeException | Error e) 
+        {
+            throw e;
+        }
+        catch (Throwable e) 
+        {
+            throw new IllegalStateException("Could not load the generated expression class", e);
+        }
+    }
+
+    
+    
+    /**
+     * Called by generated code for the ^ operator.
+     *
+     * @param base     The base number.
+     * @param exponent The exponent.
+     * @return The result of the power operation.
+     */
+    static double power(double base, double exponent) 
+    {
+        return POWER_CALCULATOR.power(base, exponent);
+    }
+
+    
+    
+    /**
+     * Called by generated code for a literal integer exponent.
+     *
+     * @param base     The base number.
+     * @param exponent The exponent.
+     * @return The result of the power operation.
+     */
+    static double power(double base, int exponent) 
+    {
+        return POWER_CALCULATOR.power(base, exponent);
+    }
+
+    
+    
+    /**
+     * Called by generated code for a literal decimal exponent.
+     *
+     * @param base        The base number.
+     * @param numerator   The numerator of the exponent.
+     * @param denominator The denominator of the exponent.
+     * @return The result of the power operation.
+     */
+    static double decimalPower(double base, int numerator, int denominator) 
+    {
+        return POWER_CALCULATOR.powerHelper(base, numerator, denominator);
+    }
+
+    
+    
+    /**
+     * Called by generated code for a literal fractional exponent.
+     *
+     * @param base        The base number.
+     * @param numerator   The numerator of the exponent.
+     * @param denominator The denominator of the exponent.
+     * @return The result of the power operation.
+     */
+    static double power(double base, int numerator, int denominator) 
+    {
+        return POWER_CALCULATOR.power(base, numerator, denominator);
+    }
+
+    
+    
+    /**
+     * Emits the instructions leaving the value of a node on the operand stack.
+     *
+     * @param node  The node to translate.
+     * @param depth The depth of the node in the tree.
+     * @return True if the node could be translated, false otherwise.
+     */
+    private boolean emit(ExpressionNode node, int depth) throws IOException 
+    {
+        if (depth > MAXIMUM_DEPTH || codeBytes.size() > MAXIMUM_CODE_LENGTH) 
+        {
+            return false;
+        }
+        if (node instanceof NumberNode) 
+        {
+            emitDouble(((NumberNode) node).getValue());
+            return true;
+        }
+        if (node instanceof VariableNode) 
+        {
+            code.writeByte(ALOAD_1);
+            push(1);
+            emitInt(((VariableNode) node).getIndex());
+            code.writeByte(DALOAD);
+            pop(2);
+            push(2);
+            return true;
+        }
+        if (node instanceof BinaryOperationNode) 
+        {
+            BinaryOperationNode operation = (BinaryOperationNode) node;
+            if (!emit(operation.getLeft(), depth + 1) || !emit(operation.getRight(), depth + 1)) 
+            {
+                return false;
+            }
+            return emitOperator(operation.getOperator());
+        }
+        if (node instanceof FractionalPowerNode) 
+        {
+            FractionalPowerNode power = (FractionalPowerNode) node;
+            if (!emit(power.getBase(), depth + 1)) 
+            {
+                return false;
+            }
+            emitInt(power.getNumerator());
+            emitInt(power.getDenominator());
+            emitInvokeStatic("power", "(DII)D");
+            pop(4);
+            push(2);
+            return true;
+        }
+
+        if (node instanceof IntegerPowerNode) 
+        {
+            IntegerPowerNode power = (IntegerPowerNode) node;
+            if (!emit(power.getBase(), depth + 1)) 
+            {
+                return false;
+            }
+            emitInt(power.getExponent());
+            emitInvokeStatic("power", "(DI)D");
+            pop(3);
+            push(2);
+            return true;
+        }
+        if (node instanceof DecimalPowerNode) 
+        {
+            DecimalPowerNode power = (DecimalPowerNode) node;
+            if (!emit(power.getBase(), depth + 1)) 
+            {
+                return false;
+            }
+            emitInt(power.getNumerator());
+            emitInt(power.getDenominator());
+            emitInvokeStatic("decimalPower", "(DII)D");
+            pop(4);
+            push(2);
+            return true;
+        }
+
+        // Unknown node types are left to the interpreter
+        return false;
+    }
+
+    
+    
+    /**
+     * Emits the instruction combining the two doubles on top of the stack.
+     *
+     * @param operator The arithmetic operator.
+     * @return True if the operator is supported, false otherwise.
+     */
+    private boolean emitOperator(char operator) throws IOException 
+    {
+        switch (operator) 
+        {
+            case '+':
+                code.writeByte(DADD);
+                break;
+            case '-':
+                code.writeByte(DSUB);
+                break;
+            case '*':
+                code.writeByte(DMUL);
+                break;
+            case '/':
+                code.writeByte(DDIV);
+                break;
+            case '^':
+                emitInvokeStatic("power", "(DD)D");
+                break;
+            default:
+                return false;
+        }
+        pop(2);
+        return true;
+    }
+
+    
+    
+    private void emitDouble(double value) throws IOException 
+    {
+        // dconst_0 only pushes positive zero, so compare bit patterns
+        if (Double.doubleToRawLongBits(value) == 0L) 
+        {
+            code.writeByte(DCONST_0);
+        }
+        else if (value == 1.0) 
+        {
+            code.writeByte(DCONST_1);
+        }
+        else 
+        {
+            code.writeByte(LDC2_W);
+            code.writeShort(doubleConstant(value));
+        }
+        push(2);
+    }
+
+    
+    
+    private void emitInt(int value) throws IOException 
+    {
+        if (value >= -1 && value <= 5) 
+        {
+            code.writeByte(ICONST_0 + value);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) 
+        {
+            code.writeByte(BIPUSH);
+            code.writeByte(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) 
+        {
+            code.writeByte(SIPUSH);
+            code.writeShort(value);
+        }
+        else 
+        {
+            code.writeByte(LDC_W);
+            code.writeShort(intConstant(value));
+        }
+        push(1);
+    }
+
+    
+    
+    private void emitInvokeStatic(String name, String descriptor) throws IOException 
+    {
+        code.writeByte(INVOKESTATIC);
+        code.writeShort(methodConstant("com/fdmgroup/tdd/Calculator/BytecodeCompiler", name, descriptor));
+    }
+
+    
+    
+    private void push(int slots) 
+    {
+        stackDepth += slots;
+        maximumStackDepth = Math.max(maximumStackDepth, stackDepth);
+    }
+
+    
+    
+    private void pop(int slots) 
+    {
+        stackDepth -= slots;
+    }
+
+    
+    
+    /**
+     * Writes the complete class file around the generated evaluate method.
+     *
+     * @return The class file bytes, or null if the method or constant pool is too large.
+     */
+    private byte[] writeClass() throws IOException 
+    {
+        int thisClass = classConstant(CLASS_NAME);
+        int superClass = classConstant("java/lang/Object");
+        int interfaceClass = classConstant("com/fdmgroup/tdd/Calculator/ExpressionFunction");
+        int superConstructor = methodConstant("java/lang/Object", "<init>", "()V");
+        int constructorName = utf8Constant("<init>");
+        int constructorDescriptor = utf8Constant("()V");
+        int evaluateName = utf8Constant("evaluate");
+        int evaluateDescriptor = utf8Constant("([D)D");
+        int codeAttribute = utf8Constant("Code");
+
+        if (codeBytes.size() > MAXIMUM_CODE_LENGTH || constantPoolSize > MAXIMUM_CONSTANT_POOL_SIZE || maximumStackDepth > 0xFFFF) 
+        {
+            return null;
+        }
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(classBytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        out.writeShort(constantPoolSize);
+        constantPoolBytes.writeTo(out);
+
+        // final class GeneratedExpression extends Object implements ExpressionFunction
+        out.writeShort(0x0010 | 0x0020);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(interfaceClass);
+        out.writeShort(0);
+
+        out.writeShort(2);
+
+        // public GeneratedExpression() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(constructorName);
+        out.writeShort(constructorDescriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + 5);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(superConstructor);
+        out.writeByte(RETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        // public double evaluate(double[] variables) { return <expression>; }
+        out.writeShort(0x0001);
+        out.writeShort(evaluateName);
+        out.writeShort(evaluateDescriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + codeBytes.size());
+        out.writeShort(maximumStackDepth);
+        out.writeShort(2);
+        out.writeInt(codeBytes.size());
+        codeBytes.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0);
+        return classBytes.toByteArray();
+    }
+
+    
+    
+    private int utf8Constant(String value) throws IOException 
+    {
+        Integer index = constants.get(value);
+        if (index == null) 
+        {
+            index = constantPoolSize++;
+            constantPool.writeByte(CONSTANT_UTF8);
+            constantPool.writeUTF(value);
+            constants.put(value, index);
+        }
+        return index;
+    }
+
+    
+    
+    private int classConstant(String internalName) throws IOException 
+    {
+        String key = "Class:" + internalName;
+        Integer index = constants.get(key);
+        if (index == null) 
+        {
+            int name = utf8Constant(internalName);
+            index = constantPoolSize++;
+            constantPool.writeByte(CONSTANT_CLASS);
+            constantPool.writeShort(name);
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    
+    
+    private int methodConstant(String owner, String name, String descriptor) throws IOException 
+    {
+        String key = "Method:" + owner + "." + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) 
+        {
+            int ownerClass = classConstant(owner);
+            int methodName = utf8Constant(name);
+            int methodDescriptor = utf8Constant(descriptor);
+            int nameAndType = constantPoolSize++;
+            constantPool.writeByte(CONSTANT_NAME_AND_TYPE);
+            constantPool.writeShort(methodName);
+            constantPool.writeShort(methodDescriptor);
+
+            index = constantPoolSize++;
+            constantPool.writeByte(CONSTANT_METHODREF);
+            constantPool.writeShort(ownerClass);
+            constantPool.writeShort(nameAndType);
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    
+    
+    private int doubleConstant(double value) throws IOException 
+    {
+        // Key on the bit pattern so that -0.0 and NaN payloads are kept exactly
+        Long key = Double.doubleToRawLongBits(value);
+        Integer index = constants.get(key);
+        if (index == null) 
+        {
+            index = constantPoolSize;
+            constantPoolSize += 2;
+            constantPool.writeByte(CONSTANT_DOUBLE);
+            constantPool.writeDouble(value);
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    
+    
+    private int intConstant(int value) throws IOException 
+    {
+        Integer key = value;
+        Integer index = constants.get(key);
+        if (index == null) 
+        {
+            index = constantPoolSize++;
+            constantPool.writeByte(CONSTANT_INTEGER);
+            constantPool.writeInt(value);
+            constants.put(key, index);
+        }
+        return index;
+    }
+}
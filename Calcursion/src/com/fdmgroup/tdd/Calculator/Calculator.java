@@ -1,20 +1,331 @@
 package com.fdmgroup.tdd.Calculator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 public class Calculator implements ICalculator {
 
+	private final ExpressionCache cache;
+	private final EvaluationMode mode;
+	
+	
+	
+    /**
+     * Creates a calculator that parses every expression it is given.
+     */
+	public Calculator() 
+	{
+		this(EvaluationMode.RECURSIVE);
+	}
+	
+	
+	
+    /**
+     * Creates a calculator that keeps up to the given number of compiled expressions in a shared cache.
+     *
+     * @param cacheSize The maximum number of cached expressions.
+     */
+	public Calculator(int cacheSize) 
+	{
+		this(cacheSize, EvaluationMode.RECURSIVE);
+	}
+	
+	
+	
+    /**
+     * Creates a calculator that parses every expression it is given and evaluates it in the given mode.
+     *
+     * @param mode The evaluation mode.
+     */
+	public Calculator(EvaluationMode mode) 
+	{
+		this.cache = null;
+		this.mode = mode;
+	}
+	
+	
+	
+    /**
+     * Creates a calculator with a cache of compiled expressions that evaluates them in the given mode.
+     *
+     * @param cacheSize The maximum number of cached expressions.
+     * @param mode      The evaluation mode.
+     */
+	public Calculator(int cacheSize, EvaluationMode mode) 
+	{
+		this.cache = new ExpressionCache(cacheSize);
+		this.mode = mode;
+	}
+	
+	
+	
 	public double evaluate(String expression) 
     {
-    	// Step 1: Sanitize the input expression to remove whitespace
-        ExpressionSanitizer sanitizer = new ExpressionSanitizer();
-        String sanitizedExpression = sanitizer.sanitizeInput(expression);
-
-        // Step 2: Add parentheses to negative numbers for correct evaluation
-        NegativeNumberParenthesesAdder parenthesisAdder = new NegativeNumberParenthesesAdder();
-        String addedParenthesisSanitizedExpression = parenthesisAdder.addParentheses(sanitizedExpression);
-
-        // Step 3: Evaluate the sanitized expression
-        ExpressionEvaluator evaluator = new ExpressionEvaluator();
-        double result = evaluator.evaluateExpression(addedParenthesisSanitizedExpression);
-        return result;
+		if (CalculatorMetrics.isRecording()) 
+		{
+			return evaluateRecorded(expression);
+		}
+		if (cache != null) 
+		{
+			return compileWithoutVariables(expression).evaluate();
+		}
+		
+        return evaluate(new ExpressionParser(), expression);
+    }
+	
+	
+	
+    /**
+     * Parses the expression with the given parser and evaluates it in this calculator's mode, bypassing the cache.
+     * Callers that evaluate many expressions on one thread can reuse the parser and pass views over their own buffers.
+     *
+     * @param parser     A parser that rejects variable names.
+     * @param expression The expression to evaluate.
+     * @return The result of the evaluation.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+	double evaluate(ExpressionParser parser, CharSequence expression) 
+	{
+		if (CalculatorMetrics.isRecording()) 
+		{
+			return evaluateRecorded(parser, expression);
+		}
+		
+    	// Tokenize and parse the expression in one pass, then evaluate the resulting tree
+        return evaluateTree(parser.parse(expression), expression);
+	}
+	
+	
+	
+    /**
+     * Evaluates the expression without throwing for malformed input.
+     * The syntax is checked in one pass over the tokens before anything is parsed, cached or evaluated,
+     * so invalid input costs no more than that pass and never builds an exception.
+     *
+     * @param expression The expression to evaluate.
+     * @return The value of the expression, or the first syntax error and its position.
+     */
+	@Override
+	public EvaluationResult tryEvaluate(String expression) 
+	{
+		EvaluationResult failure = new SyntaxValidator().validate(expression);
+		return failure != null ? failure : EvaluationResult.success(evaluate(expression));
+	}
+	
+	
+	
+    /**
+     * Checks and evaluates the expression like tryEvaluate with the given validator and parser, bypassing the cache.
+     *
+     * @param validator  The validator checking the syntax.
+     * @param parser     A parser that rejects variable names.
+     * @param expression The expression to evaluate.
+     * @return The value of the expression, or the first syntax error and its position.
+     */
+	EvaluationResult tryEvaluate(SyntaxValidator validator, ExpressionParser parser, CharSequence expression) 
+	{
+		EvaluationResult failure = validator.validate(expression);
+		return failure != null ? failure : EvaluationResult.success(evaluate(parser, expression));
+	}
+	
+	
+	
+    /**
+     * Evaluates a parsed tree in this calculator's mode, reporting an EvaluateEvent to Flight Recorder if it is enabled.
+     *
+     * @param root       The root node of a tree without variables.
+     * @param expression The expression the tree was parsed from.
+     * @return The result of the evaluation.
+     */
+	private double evaluateTree(ExpressionNode root, CharSequence expression) 
+	{
+		EvaluateEvent event = new EvaluateEvent();
+		event.begin();
+		
+    	// The parser rejects variable names here, so the tree never reads the variables array
+		double result = mode == EvaluationMode.STACK_SAFE ? PostfixProgram.compile(root).evaluate(null) : root.evaluate(null);
+		
+		if (event.shouldCommit()) 
+		{
+			event.expressionLength = expression.length();
+			event.nodeCount = ExpressionNode.countNodes(root);
+			event.evaluationMode = mode.name();
+			event.commit();
+		}
+		return result;
+	}
+	
+	
+	
+    /**
+     * Evaluates the expression like evaluate, recording the parse and evaluate stages in CalculatorMetrics.
+     * With a cache, the parse stage is the cache lookup plus the parse on a miss.
+     */
+	private double evaluateRecorded(String expression) 
+	{
+		if (cache == null) 
+		{
+			return evaluateRecorded(new ExpressionParser(), expression);
+		}
+		
+		CalculatorMetrics metrics = CalculatorMetrics.get();
+		long startNanos = System.nanoTime();
+		long startBytes = metrics.allocatedBytes();
+		CompiledExpression compiled = compileWithoutVariables(expression);
+		metrics.record(CalculatorMetrics.Stage.PARSE, startNanos, startBytes);
+		
+		startNanos = System.nanoTime();
+		startBytes = metrics.allocatedBytes();
+		double result = compiled.evaluate();
+		metrics.record(CalculatorMetrics.Stage.EVALUATE, startNanos, startBytes);
+		return result;
+	}
+	
+	
+	
+    /**
+     * Parses and evaluates the expression like evaluate(ExpressionParser, CharSequence),
+     * recording the parse and evaluate stages in CalculatorMetrics.
+     */
+	private double evaluateRecorded(ExpressionParser parser, CharSequence expression) 
+	{
+		CalculatorMetrics metrics = CalculatorMetrics.get();
+		long startNanos = System.nanoTime();
+		long startBytes = metrics.allocatedBytes();
+        ExpressionNode root = parser.parse(expression);
+		metrics.record(CalculatorMetrics.Stage.PARSE, startNanos, startBytes);
+		
+		startNanos = System.nanoTime();
+		startBytes = metrics.allocatedBytes();
+		double result = evaluateTree(root, expression);
+		metrics.record(CalculatorMetrics.Stage.EVALUATE, startNanos, startBytes);
+		return result;
+	}
+	
+	
+	
+    /**
+     * Evaluates a batch of expressions in parallel on the common ForkJoinPool.
+     * Expressions repeated within the batch are evaluated once.
+     *
+     * @param expressions The expressions to evaluate.
+     * @param results     The array receiving the result of expression i at index i.
+     */
+	@Override
+	public void evaluateAll(List<String> expressions, double[] results) 
+	{
+		new BatchEvaluator(this, ForkJoinPool.commonPool()).evaluateAll(expressions, results);
+	}
+	
+	
+	
+    /**
+     * Compiles the expression into an immutable tree that can be evaluated repeatedly without re-parsing.
+     * Variable names are given slots in the order they first appear.
+     *
+     * @param expression The expression to compile.
+     * @return The compiled expression.
+     */
+	public CompiledExpression compile(String expression) 
+    {
+		if (cache == null) 
+		{
+			return parse(expression, new ArrayList<String>(), true);
+		}
+		
+		// Reuse the cached tree when the same tokens were compiled before; a miss parses the caller's text,
+		// so errors report positions in it
+		String key = ExpressionCache.normalize(expression);
+		CompiledExpression compiled = cache.get(key);
+		if (compiled == null) 
+		{
+			ExpressionParser parser = new ExpressionParser(new ArrayList<String>(), true);
+			compiled = new CompiledExpression(key, parser.parse(expression), parser.getVariableNames(), mode);
+			cache.put(key, compiled);
+		}
+		return compiled;
     }
+	
+	
+	
+    /**
+     * Looks up or compiles an expression for evaluate, which rejects variables whether or not a cache is used.
+     * A miss parses the expression as given rather than its cache key, so errors report positions in the caller's text.
+     *
+     * @param expression The expression to compile.
+     * @return The cached or newly compiled expression, which has no variables.
+     * @throws IllegalArgumentException If the expression is malformed or uses a variable.
+     */
+	private CompiledExpression compileWithoutVariables(String expression) 
+	{
+		String key = ExpressionCache.normalize(expression);
+		CompiledExpression compiled = cache.get(key);
+		if (compiled == null || compiled.getVariableCount() > 0) 
+		{
+			// An entry compiled with variables makes this parse throw the same error as evaluate without a cache
+			ExpressionNode root = new ExpressionParser().parse(expression);
+			compiled = new CompiledExpression(key, root, new ArrayList<String>(), mode);
+			cache.put(key, compiled);
+		}
+		return compiled;
+	}
+	
+	
+	
+    /**
+     * Compiles the expression with a fixed set of variables.
+     * Slot i of the bindings array holds the value of variableNames[i], whether or not the expression uses it.
+     *
+     * @param expression    The expression to compile.
+     * @param variableNames The variable names, in slot order.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression uses a variable that is not listed.
+     */
+	public CompiledExpression compile(String expression, String... variableNames) 
+	{
+		return parse(expression, new ArrayList<String>(Arrays.asList(variableNames)), false);
+	}
+	
+	
+	
+    /**
+     * Parses the expression and wraps the resulting tree.
+     *
+     * @param expression          The expression to parse.
+     * @param variableNames       The variable names already assigned to slots.
+     * @param acceptsNewVariables True to give unknown names new slots, false to reject them.
+     * @return The compiled expression.
+     */
+	private CompiledExpression parse(String expression, List<String> variableNames, boolean acceptsNewVariables) 
+	{
+		ExpressionParser parser = new ExpressionParser(variableNames, acceptsNewVariables);
+		ExpressionNode root = parser.parse(expression);
+		return new CompiledExpression(expression, root, parser.getVariableNames(), mode);
+	}
+	
+	
+	
+    /**
+     * Returns the mode this calculator evaluates expressions in.
+     *
+     * @return The evaluation mode.
+     */
+	public EvaluationMode getEvaluationMode() 
+	{
+		return mode;
+	}
+	
+	
+	
+    /**
+     * Returns the cache of compiled expressions.
+     *
+     * @return The cache, or null if this calculator was created without one.
+     */
+	public ExpressionCache getCache() 
+	{
+		return cache;
+	}
 }
@@ -0,0 +1,126 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The CalculatorCommandLine class evaluates a file of newline-separated expressions with a StreamingEvaluator.
+ * Usage: CalculatorCommandLine [--threads n] [--chunk-size bytes] [--stack-safe] [input|-] [output|-]
+ * Input defaults to standard input and output to standard output; each output line holds the result
+ * of the matching input line, or "Error: " and the reason it could not be evaluated.
+ */
+public class CalculatorCommandLine {
+
+    private static final String USAGE = "Usage: CalculatorCommandLine [--threads n] [--chunk-size bytes] [--stack-safe] [input|-] [output|-]";
+
+    public static void main(String[] args) 
+    {
+        System.exit(run(args, System.err));
+    }
+
+    
+    
+    /**
+     * Parses the arguments and evaluates the input.
+     *
+     * @param args   The command line arguments.
+     * @param errors The stream receiving usage and I/O errors.
+     * @return The exit status: 0 on success, 1 on an I/O error, 2 on invalid arguments.
+     */
+    static int run(String[] args, PrintStream errors) 
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkSize = StreamingEvaluator.DEFAULT_CHUNK_SIZE;
+        EvaluationMode mode = EvaluationMode.RECURSIVE;
+        String input = "-";
+        String output = "-";
+        int files = 0;
+
+        try 
+        {
+            for (int i = 0; i < args.length; i++) 
+            {
+                if (args[i].equals("--threads")) 
+                {
+                    threads = Integer.parseInt(args[++i]);
+                }
+                else if (args[i].equals("--chunk-size")) 
+                {
+                    chunkSize = Integer.parseInt(args[++i]);
+                }
+                else if (args[i].equals("--stack-safe")) 
+                {
+                    mode = EvaluationMode.STACK_SAFE;
+                }
+                else if (files == 0) 
+                {
+                    input = args[i];
+                    files++;
+                }
+                else if (files == 1) 
+                {
+                    output = args[i];
+                    files++;
+                }
+                else 
+                {
+                    throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                }
+            }
+            StreamingEvaluator evaluator = new StreamingEvaluator(new Calculator(mode), threads, chunkSize);
+
+            try (ReadableByteChannel in = openInput(input); WritableByteChannel out = openOutput(output)) 
+            {
+                evaluator.evaluate(in, out);
+            }
+            return 0;
+        }
+        catch (ArrayIndexOutOfBoundsException e) 
+        {
+            // An option was given without its value
+            errors.println(USAGE);
+            return 2;
+        }
+        catch (IllegalArgumentException e) 
+        {
+            errors.println(e.getMessage());
+            errors.println(USAGE);
+            return 2;
+        }
+        catch (IOException e) 
+        {
+            errors.println("Error: " + e);
+            return 1;
+        }
+    }
+
+    
+    
+    private static ReadableByteChannel openInput(String path) throws IOException 
+    {
+        if (path.equals("-")) 
+        {
+            return new FileInputStream(FileDescriptor.in).getChannel();
+        }
+        return FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    }
+
+    
+    
+    private static WritableByteChannel openOutput(String path) throws IOException 
+    {
+        if (path.equals("-")) 
+        {
+            return new FileOutputStream(FileDescriptor.out).getChannel();
+        }
+        return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,332 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The CalculatorMetrics class records how long each stage of an evaluation takes and how much it allocates,
+ * and counts the work done inside PowerCalculator and OperatorFinder.
+ * Recording is off by default; when it is off, each instrumented call costs one read of a volatile flag.
+ * Turn it on with setEnabled(true), over JMX, or with the system property calcursion.metrics=true,
+ * and call register() to publish the metrics to the platform MBean server.
+ * Allocated bytes come from the HotSpot ThreadMXBean and are 0 on JVMs that cannot measure them.
+ */
+public final class CalculatorMetrics implements CalculatorMetricsMXBean {
+
+    /** The name the metrics are registered under. */
+    public static final String OBJECT_NAME = "com.fdmgroup.tdd.Calculator:type=CalculatorMetrics";
+
+    /**
+     * The stages timed by the metrics.
+     * Calculator.evaluate parses and evaluates; sanitizing and parenthesizing are only timed
+     * when ExpressionSanitizer and NegativeNumberParenthesesAdder are called directly.
+     */
+    public enum Stage {
+        SANITIZE, PARENTHESIZE, PARSE, EVALUATE
+    }
+
+    private static final CalculatorMetrics INSTANCE = new CalculatorMetrics();
+
+    private static volatile boolean enabled = Boolean.getBoolean("calcursion.metrics");
+
+    private final StageRecorder[] stages = new StageRecorder[Stage.values().length];
+    private final LongAdder nthRootCount = new LongAdder();
+    private final LongAdder nthRootIterationCount = new LongAdder();
+    private final LongAdder primeCheckCount = new LongAdder();
+    private final LongAdder operatorScanLength = new LongAdder();
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    private CalculatorMetrics() 
+    {
+        for (int i = 0; i < stages.length; i++) 
+        {
+            stages[i] = new StageRecorder();
+        }
+
+        // Allocation counters are a HotSpot extension of ThreadMXBean
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) 
+        {
+            allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        }
+        else 
+        {
+            allocationBean = null;
+        }
+    }
+
+    
+    
+    /**
+     * Returns the metrics shared by all calculators.
+     *
+     * @return The metrics.
+     */
+    public static CalculatorMetrics get() 
+    {
+        return INSTANCE;
+    }
+
+    
+    
+    /**
+     * Checks if recording is on; instrumented code reads this before doing any other work.
+     *
+     * @return True if metrics are being recorded.
+     */
+    static boolean isRecording() 
+    {
+        return enabled;
+    }
+
+    
+    
+    /**
+     * Publishes the metrics to the platform MBean server under OBJECT_NAME, unless they already are.
+     *
+     * @throws IllegalStateException If the MBean server rejects the registration.
+     */
+    public static synchronized void register() 
+    {
+        try 
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) 
+            {
+                server.registerMBean(INSTANCE, name);
+            }
+        }
+        catch (JMException e) 
+        {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    
+    
+    @Override
+    public boolean isEnabled() 
+    {
+        return enabled;
+    }
+
+    
+    
+    @Override
+    public void setEnabled(boolean enabled) 
+    {
+        CalculatorMetrics.enabled = enabled;
+    }
+
+    
+    
+    /**
+     * Returns the current thread's allocated bytes, to be passed back to record when the stage ends.
+     *
+     * @return The bytes allocated by the current thread so far, or 0 if they cannot be measured.
+     */
+    long allocatedBytes() 
+    {
+        return allocationBean == null ? 0 : allocationBean.getCurrentThreadAllocatedBytes();
+    }
+
+    
+    
+    /**
+     * Records one run of a stage that started at the given time and allocation count.
+     *
+     * @param stage      The stage that ran.
+     * @param startNanos The System.nanoTime() when the stage started.
+     * @param startBytes The allocatedBytes() when the stage started.
+     */
+    void record(Stage stage, long startNanos, long startBytes) 
+    {
+        long nanos = System.nanoTime() - startNanos;
+        stages[stage.ordinal()].record(nanos, allocatedBytes() - startBytes);
+    }
+
+    
+    
+    /**
+     * Records one nth root solved by Newton iterations.
+     *
+     * @param iterations The number of iterations it took.
+     */
+    void recordNthRoot(int iterations) 
+    {
+        nthRootCount.increment();
+        nthRootIterationCount.add(iterations);
+    }
+
+    
+    
+    void recordPrimeCheck() 
+    {
+        primeCheckCount.increment();
+    }
+
+    
+    
+    void recordOperatorScan() 
+    {
+        operatorScanLength.increment();
+    }
+
+    
+    
+    /**
+     * Returns a snapshot of the timings of a stage.
+     *
+     * @param stage The stage.
+     * @return The statistics of the stage.
+     */
+    public StageStatistics getStatistics(Stage stage) 
+    {
+        return stages[stage.ordinal()].snapshot();
+    }
+
+    
+    
+    @Override
+    public StageStatistics getSanitizeStatistics() 
+    {
+        return getStatistics(Stage.SANITIZE);
+    }
+
+    
+    
+    @Override
+    public StageStatistics getParenthesizeStatistics() 
+    {
+        return getStatistics(Stage.PARENTHESIZE);
+    }
+
+    
+    
+    @Override
+    public StageStatistics getParseStatistics() 
+    {
+        return getStatistics(Stage.PARSE);
+    }
+
+    
+    
+    @Override
+    public StageStatistics getEvaluateStatistics() 
+    {
+        return getStatistics(Stage.EVALUATE);
+    }
+
+    
+    
+    @Override
+    public long getNthRootCount() 
+    {
+        return nthRootCount.sum();
+    }
+
+    
+    
+    @Override
+    public long getNthRootIterationCount() 
+    {
+        return nthRootIterationCount.sum();
+    }
+
+    
+    
+    @Override
+    public long getPrimeCheckCount() 
+    {
+        return primeCheckCount.sum();
+    }
+
+    
+    
+    /**
+     * Returns the number of characters examined by OperatorFinder.findLastOperatorIndex.
+     *
+     * @return The scan length.
+     */
+    @Override
+    public long getOperatorScanLength() 
+    {
+        return operatorScanLength.sum();
+    }
+
+    
+    
+    /**
+     * Clears every stage and counter.
+     */
+    @Override
+    public void reset() 
+    {
+        for (StageRecorder stage : stages) 
+        {
+            stage.reset();
+        }
+        nthRootCount.reset();
+        nthRootIterationCount.reset();
+        primeCheckCount.reset();
+        operatorScanLength.reset();
+    }
+
+    
+    
+    /**
+     * The running totals and power-of-two latency histogram of one stage.
+     */
+    private static final class StageRecorder {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maximumNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(64);
+
+        void record(long nanos, long bytes) 
+        {
+            count.increment();
+            totalNanos.add(nanos);
+            maximumNanos.accumulate(nanos);
+            allocatedBytes.add(bytes);
+            histogram.incrementAndGet(nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos));
+        }
+
+        
+        
+        StageStatistics snapshot() 
+        {
+            long[] buckets = new long[histogram.length()];
+            for (int i = 0; i < buckets.length; i++) 
+            {
+                buckets[i] = histogram.get(i);
+            }
+            return new StageStatistics(count.sum(), totalNanos.sum(), maximumNanos.get(), allocatedBytes.sum(), buckets);
+        }
+
+        
+        
+        void reset() 
+        {
+            count.reset();
+            totalNanos.reset();
+            maximumNanos.reset();
+            allocatedBytes.reset();
+            for (int i = 0; i < histogram.length(); i++) 
+            {
+                histogram.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The management interface of CalculatorMetrics, published under the name CalculatorMetrics.OBJECT_NAME.
+ */
+public interface CalculatorMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    StageStatistics getSanitizeStatistics();
+
+    StageStatistics getParenthesizeStatistics();
+
+    StageStatistics getParseStatistics();
+
+    StageStatistics getEvaluateStatistics();
+
+    long getNthRootCount();
+
+    long getNthRootIterationCount();
+
+    long getPrimeCheckCount();
+
+    long getOperatorScanLength();
+
+    void reset();
+}
@@ -0,0 +1,358 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The CalculatorServer class exposes an ICalculator over a line-based TCP protocol on the loopback interface.
+ * Each request is one line holding an expression; each response is one line holding the result,
+ * or "ERROR " and the reason the expression could not be evaluated.
+ * Clients may pipeline any number of requests on a connection; responses come back in request order,
+ * and are flushed together once the server has caught up with the requests already sent.
+ * Each connection is served by its own thread: a virtual thread when the JVM has them (Java 21 and later),
+ * otherwise a pooled platform thread.
+ * The calculator is shared by all connections, so a cached Calculator warms up once for every client.
+ * A request line longer than the maximum length is read to its end without being kept and answered with an error,
+ * so no client can make the server buffer an unbounded line.
+ */
+public class CalculatorServer implements AutoCloseable {
+
+    /** The default maximum number of characters in a request line. */
+    public static final int DEFAULT_MAXIMUM_LINE_LENGTH = 64 * 1024;
+
+    // Waits after a failed accept, doubling from the first to the last while the failures continue
+    private static final long FIRST_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long LAST_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    private static final System.Logger LOGGER = System.getLogger(CalculatorServer.class.getName());
+
+    private final ICalculator calculator;
+    private final int maximumLineLength;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Creates a server bound to the loopback interface; call start() to accept connections.
+     *
+     * @param calculator The calculator evaluating every request; it must be safe to use from several threads.
+     * @param port       The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public CalculatorServer(ICalculator calculator, int port) throws IOException 
+    {
+        this(calculator, port, DEFAULT_MAXIMUM_LINE_LENGTH);
+    }
+
+    
+    
+    /**
+     * Creates a server bound to the loopback interface with a limit on the length of request lines.
+     *
+     * @param calculator        The calculator evaluating every request; it must be safe to use from several threads.
+     * @param port              The port to listen on, or 0 for any free port.
+     * @param maximumLineLength The maximum number of characters in a request line, not counting its line terminator.
+     * @throws IOException If the port cannot be bound.
+     * @throws IllegalArgumentException If the maximum line length is not positive.
+     */
+    public CalculatorServer(ICalculator calculator, int port, int maximumLineLength) throws IOException 
+    {
+        if (maximumLineLength <= 0) 
+        {
+            throw new IllegalArgumentException("Maximum line length must be positive: " + maximumLineLength);
+        }
+        this.calculator = calculator;
+        this.maximumLineLength = maximumLineLength;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        this.virtualThreads = virtualExecutor != null;
+        this.executor = virtualThreads ? virtualExecutor : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "calculator-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    
+    
+    /**
+     * Starts accepting connections in the background.
+     *
+     * @return This server.
+     */
+    public CalculatorServer start() 
+    {
+        executor.execute(this::acceptConnections);
+        return this;
+    }
+
+    
+    
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The local port.
+     */
+    public int getPort() 
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    
+    
+    /**
+     * Checks if connections are served by virtual threads.
+     *
+     * @return True on JVMs with virtual threads, false if platform threads are used.
+     */
+    public boolean usesVirtualThreads() 
+    {
+        return virtualThreads;
+    }
+
+    
+    
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException 
+    {
+        closed = true;
+        serverSocket.close();
+        for (Socket connection : connections) 
+        {
+            connection.close();
+        }
+        executor.shutdownNow();
+    }
+
+    
+    
+    private void acceptConnections() 
+    {
+        long backoffMillis = 0;
+        while (!closed) 
+        {
+            try 
+            {
+                Socket connection = serverSocket.accept();
+                backoffMillis = 0;
+                connections.add(connection);
+                if (closed) 
+                {
+                    connection.close();
+                    return;
+                }
+                executor.execute(() -> serve(connection));
+            }
+            catch (IOException e) 
+            {
+                // Closing the server socket ends the loop
+                if (serverSocket.isClosed()) 
+                {
+                    return;
+                }
+
+                // Failures such as running out of file descriptors last a while, so wait before accepting again
+                backoffMillis = Math.min(Math.max(backoffMillis * 2, FIRST_ACCEPT_BACKOFF_MILLIS), LAST_ACCEPT_BACKOFF_MILLIS);
+                LOGGER.log(System.Logger.Level.WARNING, "Accepting a connection failed; retrying in " + backoffMillis + " ms", e);
+                try 
+                {
+                    Thread.sleep(backoffMillis);
+                }
+                catch (InterruptedException interrupted) 
+                {
+                    // close() interrupts the accepting thread when it shuts the executor down
+                    return;
+                }
+            }
+        }
+    }
+
+    
+    
+    /**
+     * Answers the requests of one connection until the client closes it.
+     */
+    private void serve(Socket connection) 
+    {
+        try (Socket socket = connection;
+                Reader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) 
+        {
+            socket.setTcpNoDelay(true);
+            LineReader reader = new LineReader(input);
+            StringBuilder line = new StringBuilder();
+            while (reader.readLine(line, maximumLineLength)) 
+            {
+                if (line.length() > maximumLineLength) 
+                {
+                    writer.write("ERROR Request line longer than " + maximumLineLength + " characters");
+                }
+                else 
+                {
+                    writer.write(respond(line.toString()));
+                }
+                writer.newLine();
+
+                // Flush only once the pipelined requests already received have been answered
+                if (!reader.ready()) 
+                {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        }
+        catch (IOException e) 
+        {
+            // The client or close() dropped the connection; nothing can be sent back on it
+        }
+        finally 
+        {
+            connections.remove(connection);
+        }
+    }
+
+    
+    
+    private String respond(String expression) 
+    {
+        EvaluationResult result = calculator.tryEvaluate(expression);
+        return result.isSuccess() ? Double.toString(result.getValue()) : "ERROR " + result.getMessage();
+    }
+
+    
+    
+    /**
+     * Creates an executor that starts a virtual thread per task, looked up reflectively
+     * so the library still builds and runs on Java 17.
+     *
+     * @return The executor, or null if the JVM has no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() 
+    {
+        try 
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) 
+        {
+            return null;
+        }
+    }
+
+    
+    
+    /**
+     * Reads request lines ended by "\n", "\r" or "\r\n" from a reader through its own buffer, keeping at most
+     * one character more than the maximum length of each line.
+     */
+    private static final class LineReader {
+
+        private final Reader input;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private boolean skipLineFeed;
+
+        LineReader(Reader input) 
+        {
+            this.input = input;
+        }
+
+        
+        
+        /**
+         * Reads the next line without its terminator. Characters beyond maximumLength + 1 are read and dropped,
+         * so a line is too long exactly when the builder ends up holding more than maximumLength characters.
+         *
+         * @param line          The builder receiving the line; it is cleared first.
+         * @param maximumLength The maximum length of a line.
+         * @return False if the stream ended before another line started.
+         * @throws IOException If reading fails.
+         */
+        boolean readLine(StringBuilder line, int maximumLength) throws IOException 
+        {
+            line.setLength(0);
+            boolean started = false;
+            while (position < limit || fill()) 
+            {
+                char c = buffer[position++];
+                if (skipLineFeed) 
+                {
+                    skipLineFeed = false;
+                    if (c == '\n') 
+                    {
+                        continue;
+                    }
+                }
+                started = true;
+                if (c == '\n' || c == '\r') 
+                {
+                    skipLineFeed = c == '\r';
+                    return true;
+                }
+                if (line.length() <= maximumLength) 
+                {
+                    line.append(c);
+                }
+            }
+            return started;
+        }
+
+        
+        
+        /**
+         * Checks if another line has started arriving, so reading it will not wait for the client.
+         *
+         * @return True if characters other than the line feed of a previous "\r\n" can be read without blocking.
+         * @throws IOException If reading fails.
+         */
+        boolean ready() throws IOException 
+        {
+            while (true) 
+            {
+                if (position == limit && !(input.ready() && fill())) 
+                {
+                    return false;
+                }
+                if (!skipLineFeed) 
+                {
+                    return true;
+                }
+                skipLineFeed = false;
+                if (buffer[position] == '\n') 
+                {
+                    position++;
+                }
+            }
+        }
+
+        
+        
+        private boolean fill() throws IOException 
+        {
+            int read = input.read(buffer, 0, buffer.length);
+            position = 0;
+            limit = Math.max(read, 0);
+            return read > 0;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The CompiledExpression class is an immutable, pre-parsed form of an arithmetic expression.
+ * It can be evaluated any number of times without repeating the string processing done by the parser.
+ * Variables in the expression are resolved to slots at compile time and read from a bindings array.
+ * Hot expressions can additionally be translated into a generated JVM class with compileToBytecode().
+ * In EvaluationMode.STACK_SAFE the tree is also flattened into a postfix program, which is used for evaluation.
+ * simplify() folds the parts of the tree that do not depend on the variables, so they are computed only once.
+ * Very large expressions can be evaluated on several cores with evaluateInParallel.
+ * reassociate() regroups long runs of + and * to make them shallower and more accurate, at the price of
+ * results that may differ in the last bits from evaluating the operators in order.
+ */
+public final class CompiledExpression {
+
+    private static final double[] NO_BINDINGS = new double[0];
+
+    private final String expression;
+    private final ExpressionNode root;
+    private final String[] variableNames;
+    private final PostfixProgram program;
+    private final ExpressionFunction function;
+    private final int removedNodeCount;
+    private volatile ParallelTreeEvaluator parallelEvaluator;
+
+    /**
+     * Creates a compiled expression.
+     *
+     * @param expression    The original expression text.
+     * @param root          The root node of the expression tree.
+     * @param variableNames The variable names, in slot order.
+     */
+    CompiledExpression(String expression, ExpressionNode root, List<String> variableNames) 
+    {
+        this(expression, root, variableNames, EvaluationMode.RECURSIVE);
+    }
+
+    
+    
+    /**
+     * Creates a compiled expression evaluated in the given mode.
+     *
+     * @param expression    The original expression text.
+     * @param root          The root node of the expression tree.
+     * @param variableNames The variable names, in slot order.
+     * @param mode          The evaluation mode.
+     */
+    CompiledExpression(String expression, ExpressionNode root, List<String> variableNames, EvaluationMode mode) 
+    {
+        this(expression, root, variableNames.toArray(new String[0]), 
+                mode == EvaluationMode.STACK_SAFE ? PostfixProgram.compile(root) : null, null, 0);
+    }
+
+    
+    
+    private CompiledExpression(String expression, ExpressionNode root, String[] variableNames, 
+            PostfixProgram program, ExpressionFunction function, int removedNodeCount) 
+    {
+        this.expression = expression;
+        this.root = root;
+        this.variableNames = variableNames;
+        this.program = program;
+        this.function = function;
+        this.removedNodeCount = removedNodeCount;
+    }
+
+    
+    
+    /**
+     * Evaluates the compiled expression by walking its tree.
+     *
+     * @return The result of the expression evaluation.
+     * @throws IllegalArgumentException If the expression has variables.
+     */
+    public double evaluate() 
+    {
+        return evaluate(NO_BINDINGS, EvaluationContext.current());
+    }
+
+    
+    
+    /**
+     * Evaluates the compiled expression with values for its variables.
+     * The bindings are read by slot index, so no name lookup happens during evaluation.
+     *
+     * @param bindings The variable values; bindings[i] is the value of getVariableNames().get(i).
+     * @return The result of the expression evaluation.
+     * @throws IllegalArgumentException If fewer values than variables are given.
+     */
+    public double evaluate(double... bindings) 
+    {
+        return evaluate(bindings, EvaluationContext.current());
+    }
+
+    
+    
+    /**
+     * Evaluates the compiled expression with values for its variables, using the scratch space of the given context.
+     * Once the context has grown to fit the expression, evaluating allocates nothing.
+     *
+     * @param bindings The variable values; bindings[i] is the value of getVariableNames().get(i).
+     * @param context  The context of the calling thread.
+     * @return The result of the expression evaluation.
+     * @throws IllegalArgumentException If fewer values than variables are given.
+     */
+    public double evaluate(double[] bindings, EvaluationContext context) 
+    {
+        if (bindings.length < variableNames.length) 
+        {
+            throw new IllegalArgumentException("Expected values for the variables " + Arrays.toString(variableNames) + " but got " + bindings.length);
+        }
+        EvaluateEvent event = new EvaluateEvent();
+        event.begin();
+        double result;
+        if (function != null) 
+        {
+            result = function.evaluate(bindings);
+        }
+        else if (program != null) 
+        {
+            result = program.evaluate(bindings, context.stack(program.getMaximumStackDepth()));
+        }
+        else 
+        {
+            result = root.evaluate(bindings);
+        }
+
+        if (event.shouldCommit()) 
+        {
+            event.expressionLength = expression.length();
+            event.nodeCount = ExpressionNode.countNodes(root);
+            event.evaluationMode = function != null ? "BYTECODE" : getEvaluationMode().name();
+            event.commit();
+        }
+        return result;
+    }
+
+    
+    
+    /**
+     * Evaluates the compiled expression on the given pool, splitting large chains of operations into parallel tasks.
+     * Subtrees below ParallelTreeEvaluator.SEQUENTIAL_THRESHOLD nodes run sequentially, and the result is the same
+     * as evaluate(bindings); small expressions are evaluated directly on the calling thread.
+     * The parallel plan is built on the first call and reused.
+     *
+     * @param pool     The pool running the tasks.
+     * @param bindings The variable values; bindings[i] is the value of getVariableNames().get(i).
+     * @return The result of the expression evaluation.
+     * @throws IllegalArgumentException If fewer values than variables are given.
+     */
+    public double evaluateInParallel(ForkJoinPool pool, double... bindings) 
+    {
+        if (bindings.length < variableNames.length) 
+        {
+            throw new IllegalArgumentException("Expected values for the variables " + Arrays.toString(variableNames) + " but got " + bindings.length);
+        }
+        ParallelTreeEvaluator evaluator = parallelEvaluator;
+        if (evaluator == null) 
+        {
+            evaluator = ParallelTreeEvaluator.plan(root);
+            parallelEvaluator = evaluator;
+        }
+        return evaluator.evaluate(pool, bindings);
+    }
+
+    
+    
+    /**
+     * Evaluates the compiled expression for every row of a set of columns, one column per variable.
+     * The expression is flattened once and run block by block over the rows, with a tight loop per operator,
+     * instead of walking the tree once per row.
+     *
+     * @param columns The variable values; columns[i] holds the values of getVariableNames().get(i), one per row.
+     * @param out     The array receiving the result of row r at index r; its length is the number of rows.
+     * @throws IllegalArgumentException If there are fewer columns than variables, or a column is shorter than out.
+     */
+    public void evaluate(double[][] columns, double[] out) 
+    {
+        if (columns.length < variableNames.length) 
+        {
+            throw new IllegalArgumentException("Expected columns for the variables " + Arrays.toString(variableNames) + " but got " + columns.length);
+        }
+        for (int i = 0; i < variableNames.length; i++) 
+        {
+            if (columns[i].length < out.length) 
+            {
+                throw new IllegalArgumentException("Column " + variableNames[i] + " has " + columns[i].length + " rows but " + out.length + " are expected");
+            }
+        }
+
+        PostfixProgram columnProgram = program != null ? program : PostfixProgram.compile(root);
+        double[][] stack = new double[columnProgram.getMaximumStackDepth()][Math.min(out.length, PostfixProgram.BLOCK_SIZE)];
+        columnProgram.evaluateColumns(columns, out, stack);
+    }
+
+    
+    
+    /**
+     * Translates the expression into a generated JVM class with one straight-line method,
+     * which HotSpot can inline and optimize without the virtual calls of the tree walk.
+     * Generating a class is far more expensive than parsing, so this only pays off for expressions evaluated very often.
+     *
+     * @return A bytecode-backed copy of this expression, or this expression if it is already bytecode-backed
+     *         or cannot be translated (in which case the tree is still used for evaluation).
+     */
+    public CompiledExpression compileToBytecode() 
+    {
+        if (function != null) 
+        {
+            return this;
+        }
+        ExpressionFunction generated = new BytecodeCompiler().compile(root);
+        return generated == null ? this : new CompiledExpression(expression, root, variableNames, program, generated, removedNodeCount);
+    }
+
+    
+    
+    /**
+     * Folds the subtrees without variables into numbers and removes identities such as x * 1 and x + 0,
+     * so work that does not depend on the bindings is done once here instead of on every evaluation.
+     * The simplified expression keeps the evaluation mode, and is bytecode-backed again if this one was.
+     *
+     * @return A simplified copy of this expression, or this expression if nothing could be simplified.
+     */
+    public CompiledExpression simplify() 
+    {
+        ExpressionSimplifier simplifier = new ExpressionSimplifier();
+        ExpressionNode simplified = simplifier.simplify(root);
+        if (simplified == root) 
+        {
+            return this;
+        }
+
+        CompiledExpression result = new CompiledExpression(expression, simplified, variableNames, 
+                program != null ? PostfixProgram.compile(simplified) : null, null, 
+                removedNodeCount + simplifier.getRemovedNodeCount());
+        return function != null ? result.compileToBytecode() : result;
+    }
+
+    
+    
+    /**
+     * Regroups the long runs of + and - and of * into balanced trees or compensated sums,
+     * so that a sum of n terms is log2(n) levels deep, or a single loop, instead of n levels.
+     * This changes where rounding happens, so it is never done implicitly; Reassociation documents
+     * the error bound of each choice. The regrouped expression keeps the evaluation mode,
+     * and is bytecode-backed again if this one was and the regrouped tree can be translated.
+     *
+     * @param reassociation How runs of + and - are regrouped.
+     * @return A regrouped copy of this expression.
+     */
+    public CompiledExpression reassociate(Reassociation reassociation) 
+    {
+        ExpressionNode regrouped = new ExpressionReassociator(reassociation).reassociate(root);
+        CompiledExpression result = new CompiledExpression(expression, regrouped, variableNames, 
+                program != null ? PostfixProgram.compile(regrouped) : null, null, removedNodeCount);
+        return function != null ? result.compileToBytecode() : result;
+    }
+
+    
+    
+    /**
+     * Returns the number of tree nodes removed by simplify().
+     *
+     * @return The number of nodes removed, or 0 if the expression was not simplified.
+     */
+    public int getRemovedNodeCount() 
+    {
+        return removedNodeCount;
+    }
+
+    
+    
+    /**
+     * Checks if the expression is evaluated by a generated class rather than by walking its tree.
+     *
+     * @return True if the expression is bytecode-backed, false otherwise.
+     */
+    public boolean isBytecodeCompiled() 
+    {
+        return function != null;
+    }
+
+    
+    
+    /**
+     * Returns the mode used to evaluate the expression tree.
+     *
+     * @return EvaluationMode.STACK_SAFE if the expression runs as a postfix program, EvaluationMode.RECURSIVE otherwise.
+     */
+    public EvaluationMode getEvaluationMode() 
+    {
+        return program != null ? EvaluationMode.STACK_SAFE : EvaluationMode.RECURSIVE;
+    }
+
+    
+    
+    /**
+     * Returns the expression text this instance was compiled from.
+     *
+     * @return The original expression.
+     */
+    public String getExpression() 
+    {
+        return expression;
+    }
+
+    
+    
+    /**
+     * Returns the names of the variables, in slot order.
+     *
+     * @return The variable names.
+     */
+    public List<String> getVariableNames() 
+    {
+        return Collections.unmodifiableList(Arrays.asList(variableNames));
+    }
+
+    
+    
+    /**
+     * Returns the number of variables without copying their names.
+     *
+     * @return The number of variable slots.
+     */
+    int getVariableCount() 
+    {
+        return variableNames.length;
+    }
+
+    
+    
+    /**
+     * Returns the slot of a variable.
+     *
+     * @param name The name of the variable.
+     * @return The index of the variable in the bindings array, or -1 if the expression does not use it.
+     */
+    public int getVariableIndex(String name) 
+    {
+        return Arrays.asList(variableNames).indexOf(name);
+    }
+
+    
+    
+    ExpressionNode getRoot() 
+    {
+        return root;
+    }
+
+    
+    
+    @Override
+    public String toString() 
+    {
+        return expression;
+    }
+}
@@ -0,0 +1,57 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The DecimalPowerNode class represents a base raised to a literal decimal exponent such as "0.75".
+ * The decimal is converted to a fraction once at parse time, and evaluation goes straight to PowerCalculator.powerHelper.
+ */
+final class DecimalPowerNode extends ExpressionNode {
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    private final ExpressionNode base;
+    private final int numerator;
+    private final int denominator;
+
+    /**
+     * Creates a node raising a base to a decimal exponent.
+     *
+     * @param base        The base operand.
+     * @param numerator   The numerator of the exponent, as given by PowerCalculator.decimalToFraction.
+     * @param denominator The denominator of the exponent, as given by PowerCalculator.decimalToFraction.
+     */
+    DecimalPowerNode(ExpressionNode base, int numerator, int denominator) 
+    {
+        this.base = base;
+        this.numerator = numerator;
+        this.denominator = denominator;
+    }
+
+    
+    
+    ExpressionNode getBase() 
+    {
+        return base;
+    }
+
+    
+    
+    int getNumerator() 
+    {
+        return numerator;
+    }
+
+    
+    
+    int getDenominator() 
+    {
+        return denominator;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        return POWER_CALCULATOR.powerHelper(base.evaluate(variables), numerator, denominator);
+    }
+}
@@ -0,0 +1,30 @@
+package com.fdmgroup.tdd.Calculator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The EvaluateEvent class is a Java Flight Recorder event for one evaluation of a parsed expression.
+ */
+@Name("com.fdmgroup.tdd.Calculator.Evaluate")
+@Label("Expression Evaluate")
+@Description("A parsed expression evaluated")
+@Category("Calcursion")
+@Enabled(false)
+@StackTrace(false)
+final class EvaluateEvent extends Event {
+
+    @Label("Expression Length")
+    int expressionLength;
+
+    @Label("Node Count")
+    int nodeCount;
+
+    @Label("Evaluation Mode")
+    String evaluationMode;
+}
@@ -0,0 +1,40 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The EvaluationContext class holds the scratch space one thread needs to evaluate compiled expressions,
+ * so that evaluating a compiled expression again allocates nothing once the context has grown to fit it.
+ * A context must only be used by one thread at a time; current() returns the calling thread's own context.
+ */
+public final class EvaluationContext {
+
+    private static final ThreadLocal<EvaluationContext> CURRENT = ThreadLocal.withInitial(EvaluationContext::new);
+
+    private double[] stack = new double[16];
+
+    /**
+     * Returns the context of the calling thread, creating it on first use.
+     *
+     * @return The calling thread's context.
+     */
+    public static EvaluationContext current() 
+    {
+        return CURRENT.get();
+    }
+
+    
+    
+    /**
+     * Returns an operand stack of at least the given depth, growing the context's stack if it is too small.
+     *
+     * @param depth The number of slots needed.
+     * @return The operand stack.
+     */
+    double[] stack(int depth) 
+    {
+        if (stack.length < depth) 
+        {
+            stack = new double[Math.max(depth, stack.length * 2)];
+        }
+        return stack;
+    }
+}
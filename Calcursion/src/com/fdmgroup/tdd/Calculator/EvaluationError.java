@@ -0,0 +1,28 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The EvaluationError enum tells why an EvaluationResult holds no value.
+ */
+public enum EvaluationError {
+
+    /** A character that cannot start any token, such as "$". */
+    INVALID_CHARACTER,
+
+    /** An operator, operand or ')' in a place where the grammar does not allow it, as the "*" in "2+*3". */
+    UNEXPECTED_TOKEN,
+
+    /** The expression ends where an operand is still expected, as in "1+". */
+    UNEXPECTED_END,
+
+    /** A ')' without a matching '('. */
+    UNMATCHED_PARENTHESIS,
+
+    /** A '(' that is never closed; the position is the end of the expression. */
+    MISSING_PARENTHESIS,
+
+    /** A variable name in an expression evaluated without variables. */
+    UNKNOWN_VARIABLE,
+
+    /** A failure reported by an ICalculator that does not check syntax itself; the position is unknown. */
+    INVALID_EXPRESSION
+}
@@ -0,0 +1,19 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The EvaluationMode enum selects how a compiled expression tree is evaluated.
+ */
+public enum EvaluationMode {
+
+    /**
+     * Walks the expression tree recursively. This is the fastest mode for ordinary expressions,
+     * but very long operator chains can overflow the thread stack.
+     */
+    RECURSIVE,
+
+    /**
+     * Flattens the expression tree into a postfix program run with an explicit operand stack.
+     * Evaluation takes linear time and fixed thread stack space, whatever the length or nesting depth of the expression.
+     */
+    STACK_SAFE
+}
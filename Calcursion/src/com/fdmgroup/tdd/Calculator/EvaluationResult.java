@@ -0,0 +1,136 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The EvaluationResult class holds the outcome of ICalculator.tryEvaluate: either the value of the expression,
+ * or the error that prevented its evaluation and the character position where it was found.
+ * Failures are plain values, so reporting invalid input costs no exception and no stack trace.
+ */
+public final class EvaluationResult {
+
+    private final double value;
+    private final EvaluationError error;
+    private final int position;
+    private final String text;
+
+    private EvaluationResult(double value, EvaluationError error, int position, String text) 
+    {
+        this.value = value;
+        this.error = error;
+        this.position = position;
+        this.text = text;
+    }
+
+    
+    
+    /**
+     * Creates the result of a successful evaluation.
+     *
+     * @param value The value of the expression.
+     * @return The result.
+     */
+    static EvaluationResult success(double value) 
+    {
+        return new EvaluationResult(value, null, -1, null);
+    }
+
+    
+    
+    /**
+     * Creates the result of a failed evaluation.
+     *
+     * @param error    The reason for the failure.
+     * @param position The offset of the offending character or token, or -1 if it is not known.
+     * @param text     The offending token, or the whole message for INVALID_EXPRESSION; null if there is none.
+     * @return The result.
+     */
+    static EvaluationResult failure(EvaluationError error, int position, String text) 
+    {
+        return new EvaluationResult(Double.NaN, error, position, text);
+    }
+
+    
+    
+    /**
+     * Checks if the expression was evaluated.
+     *
+     * @return True if the result holds a value, false if it holds an error.
+     */
+    public boolean isSuccess() 
+    {
+        return error == null;
+    }
+
+    
+    
+    /**
+     * Returns the value of the expression.
+     *
+     * @return The value, or NaN if the evaluation failed.
+     */
+    public double getValue() 
+    {
+        return value;
+    }
+
+    
+    
+    /**
+     * Returns the reason the expression could not be evaluated.
+     *
+     * @return The error, or null if the evaluation succeeded.
+     */
+    public EvaluationError getError() 
+    {
+        return error;
+    }
+
+    
+    
+    /**
+     * Returns the offset in the expression where the error was found.
+     *
+     * @return The offset of the offending character or token, the length of the expression for errors at its end,
+     *         or -1 if the evaluation succeeded or the position is not known.
+     */
+    public int getPosition() 
+    {
+        return position;
+    }
+
+    
+    
+    /**
+     * Describes the error in the words of the exception evaluate throws for the same expression.
+     *
+     * @return The description, or null if the evaluation succeeded.
+     */
+    public String getMessage() 
+    {
+        // Built only when asked for, so rejecting input never formats text nobody reads
+        if (error == null) 
+        {
+            return null;
+        }
+        switch (error) 
+        {
+            case UNEXPECTED_END:
+                return "Unexpected end of expression";
+            case MISSING_PARENTHESIS:
+                return "Missing ')' at end of expression";
+            case UNKNOWN_VARIABLE:
+                return "Unknown variable '" + text + "' at position " + position;
+            case INVALID_EXPRESSION:
+                return text;
+            default:
+                return "Unexpected '" + text + "' at position " + position;
+        }
+    }
+
+    
+    
+    @Override
+    public String toString() 
+    {
+        return isSuccess() ? Double.toString(value) : error + " at position " + position;
+    }
+}
@@ -0,0 +1,41 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The ExponentKind enum classifies the right operand of the ^ operator when an expression is parsed.
+ */
+enum ExponentKind {
+
+    /** A literal integer such as "3" or "-2.0"; evaluated with PowerCalculator.power(double, int). */
+    INTEGER,
+
+    /**
+     * A literal fraction such as "(2/3)" or a literal decimal such as "0.75", whose numerator and denominator
+     * are worked out at parse time.
+     */
+    RATIONAL,
+
+    /** Any other exponent, whose value is only known when the expression is evaluated. */
+    REAL;
+
+    
+    
+    /**
+     * Classifies an exponent.
+     *
+     * @param exponent The exponent node.
+     * @return INTEGER or RATIONAL for finite literals, REAL otherwise.
+     */
+    static ExponentKind of(ExpressionNode exponent) 
+    {
+        if (!(exponent instanceof NumberNode)) 
+        {
+            return REAL;
+        }
+        double value = ((NumberNode) exponent).getValue();
+        if (value == (int) value) 
+        {
+            return INTEGER;
+        }
+        return Double.isInfinite(value) || Double.isNaN(value) ? REAL : RATIONAL;
+    }
+}
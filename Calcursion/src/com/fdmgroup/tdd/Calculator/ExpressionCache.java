@@ -0,0 +1,270 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ExpressionCache class is a thread-safe, size-bounded cache of compiled expressions.
+ * Entries are spread over segments, each holding a ConcurrentHashMap and evicting with the CLOCK algorithm,
+ * an approximation of least recently used: a hit only sets the reference bit of its entry, so lookups take
+ * no lock at all, even when every thread asks for the same hot expression. Adding an entry locks its segment
+ * and sweeps the clock hand past recently referenced entries, clearing their bits, to find one to evict.
+ */
+public class ExpressionCache {
+
+    private static final int MAXIMUM_SEGMENTS = 64;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int maximumSize;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates a cache holding at most the given number of compiled expressions.
+     *
+     * @param maximumSize The maximum number of entries.
+     * @throws IllegalArgumentException If the size is not positive.
+     */
+    public ExpressionCache(int maximumSize) 
+    {
+        if (maximumSize <= 0) 
+        {
+            throw new IllegalArgumentException("Cache size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+
+        // Use a power of two number of segments, never more segments than entries
+        int segmentCount = 1;
+        while (segmentCount * 2 <= Math.min(MAXIMUM_SEGMENTS, maximumSize)) 
+        {
+            segmentCount *= 2;
+        }
+        segmentMask = segmentCount - 1;
+        segments = new Segment[segmentCount];
+
+        // Share the capacity between the segments, giving the remainder to the first ones
+        for (int i = 0; i < segmentCount; i++) 
+        {
+            int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    
+    
+    /**
+     * Looks up a compiled expression.
+     *
+     * @param key The normalized expression text.
+     * @return The cached compiled expression, or null if it is not cached.
+     */
+    public CompiledExpression get(String key) 
+    {
+        Entry entry = segmentFor(key).entries.get(key);
+        if (entry == null) 
+        {
+            missCount.increment();
+            return null;
+        }
+
+        // Only write the bit when it is clear, so a hot entry's cache line stays shared between cores
+        if (!entry.referenced) 
+        {
+            entry.referenced = true;
+        }
+        hitCount.increment();
+        return entry.compiled;
+    }
+
+    
+    
+    /**
+     * Adds or replaces a compiled expression, evicting an entry that has not been used recently if its segment is full.
+     *
+     * @param key      The normalized expression text.
+     * @param compiled The compiled expression.
+     */
+    public void put(String key, CompiledExpression compiled) 
+    {
+        Segment segment = segmentFor(key);
+        synchronized (segment) 
+        {
+            segment.put(key, compiled);
+        }
+    }
+
+    
+    
+    /**
+     * Returns the number of cached expressions.
+     *
+     * @return The number of entries.
+     */
+    public int size() 
+    {
+        int size = 0;
+        for (Segment segment : segments) 
+        {
+            size += segment.entries.size();
+        }
+        return size;
+    }
+
+    
+    
+    public int getMaximumSize() 
+    {
+        return maximumSize;
+    }
+
+    
+    
+    public long getHitCount() 
+    {
+        return hitCount.sum();
+    }
+
+    
+    
+    public long getMissCount() 
+    {
+        return missCount.sum();
+    }
+
+    
+    
+    public long getEvictionCount() 
+    {
+        return evictionCount.sum();
+    }
+
+    
+    
+    /**
+     * Normalizes an expression for use as a cache key by removing the whitespace that does not separate tokens.
+     * The key is rebuilt from the tokens of the expression, with one space kept between two numbers, names or
+     * invalid characters in a row, so "1 2" does not become "12" and the key always splits into the same tokens
+     * as the expression. Expressions without whitespace are returned as they are, without copying.
+     *
+     * @param expression The expression.
+     * @return The expression with only the whitespace that separates tokens.
+     */
+    public static String normalize(String expression) 
+    {
+        int length = expression.length();
+        int index = 0;
+        while (index < length && !Character.isWhitespace(expression.charAt(index))) 
+        {
+            index++;
+        }
+        if (index == length) 
+        {
+            return expression;
+        }
+
+        ExpressionLexer lexer = new ExpressionLexer();
+        lexer.reset(expression);
+        StringBuilder normalized = new StringBuilder(length);
+        boolean previousWord = false;
+        for (TokenType type = lexer.next(); type != TokenType.END; type = lexer.next()) 
+        {
+            // Two such tokens would merge into one, as "1" and "2" or "1" and "e" followed by "+5" would
+            boolean word = type == TokenType.NUMBER || type == TokenType.IDENTIFIER || type == TokenType.ERROR;
+            if (word && previousWord) 
+            {
+                normalized.append(' ');
+            }
+            normalized.append(expression, lexer.getTokenStart(), lexer.getTokenStart() + lexer.getTokenLength());
+            previousWord = word;
+        }
+        return normalized.toString();
+    }
+
+    
+    
+    /**
+     * Picks the segment responsible for a key.
+     *
+     * @param key The cache key.
+     * @return The segment for the key.
+     */
+    private Segment segmentFor(String key) 
+    {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    
+    
+    /**
+     * A cached compiled expression with the reference bit of the CLOCK algorithm.
+     */
+    private static final class Entry {
+
+        private final String key;
+        private volatile CompiledExpression compiled;
+        private volatile boolean referenced;
+
+        Entry(String key, CompiledExpression compiled) 
+        {
+            this.key = key;
+            this.compiled = compiled;
+        }
+    }
+
+    
+    
+    /**
+     * One part of the cache: a map read without locking, and a clock of its entries changed only under the segment's lock.
+     */
+    private final class Segment {
+
+        private final ConcurrentHashMap<String, Entry> entries;
+        private final Entry[] clock;
+        private int count;
+        private int hand;
+
+        Segment(int capacity) 
+        {
+            entries = new ConcurrentHashMap<String, Entry>(Math.min(capacity, 1024));
+            clock = new Entry[capacity];
+        }
+
+        
+        
+        /**
+         * Adds or replaces an entry; the caller holds the segment's lock.
+         */
+        void put(String key, CompiledExpression compiled) 
+        {
+            Entry existing = entries.get(key);
+            if (existing != null) 
+            {
+                existing.compiled = compiled;
+                return;
+            }
+
+            if (count < clock.length) 
+            {
+                hand = count++;
+            }
+            else 
+            {
+                // Give every recently referenced entry a second chance; after one full turn every bit is clear
+                while (clock[hand].referenced) 
+                {
+                    clock[hand].referenced = false;
+                    hand = (hand + 1) % clock.length;
+                }
+                entries.remove(clock[hand].key);
+                evictionCount.increment();
+            }
+            Entry entry = new Entry(key, compiled);
+            clock[hand] = entry;
+            hand = (hand + 1) % clock.length;
+            entries.put(key, entry);
+        }
+    }
+}
@@ -5,6 +5,13 @@ package com.fdmgroup.tdd.Calculator;
  */
 public class ExpressionEvaluator {
 	
+	private static final char[] ADDITIVE_OPERATORS = {'+', '-'};
+	private static final char[] MULTIPLICATIVE_OPERATORS = {'*', '/'};
+	private static final char[] POWER_OPERATOR = {'^'};
+	
+	private final PowerCalculator powerCalculator = new PowerCalculator();
+	private final OperatorFinder operatorFinder = new OperatorFinder();
+	
     /**
      * Evaluates the expression by performing the arithmetic operations.
      *
@@ -19,24 +26,22 @@ public class ExpressionEvaluator {
             return 0.0;
         }
 
-        OperatorFinder operatorFinder = new OperatorFinder();
-        
         // Find the last occurrence of addition or subtraction operator
-        int index = operatorFinder.findLastOperatorIndex(expression, expression.length() - 1, 0, '+', '-');
+        int index = operatorFinder.findLastOperatorIndex(expression, expression.length() - 1, 0, ADDITIVE_OPERATORS);
         if (index != -1) 
         {
             return separateTwoOperands(expression, index);
         }
 
         // Find the last occurrence of multiplication or division operator
-        index = operatorFinder.findLastOperatorIndex(expression, expression.length() - 1, 0, '*', '/');
+        index = operatorFinder.findLastOperatorIndex(expression, expression.length() - 1, 0, MULTIPLICATIVE_OPERATORS);
         if (index != -1) 
         {
             return separateTwoOperands(expression, index);
         }
 
         // Find the last occurrence of exponentiation operator
-        index = operatorFinder.findLastOperatorIndex(expression, expression.length() - 1, 0, '^');
+        index = operatorFinder.findLastOperatorIndex(expression, expression.length() - 1, 0, POWER_OPERATOR);
         if (index != -1) 
         {
             return separateTwoOperands(expression, index);
@@ -50,7 +55,7 @@ public class ExpressionEvaluator {
         }
         
         // If no operators are found, parse the expression as a double and return it
-        return Double.parseDouble(expression);
+        return NumberParser.parse(expression, 0, expression.length());
     }
 
     
@@ -72,9 +77,9 @@ public class ExpressionEvaluator {
         double rightValue = 0;
         
         // If the operator is an exponentiation and the right operand is a fractional string (e.g., "2/3"), calculate the exponentiation
-        if (operator == '^' && new PowerCalculator().isFractionalString(rightOperand)) 
+        if (operator == '^' && powerCalculator.isFractionalString(rightOperand)) 
         {
-                return new PowerCalculator().power(leftValue, rightOperand);  		
+                return powerCalculator.power(leftValue, rightOperand);  		
         }
         else 
         {
@@ -106,7 +111,7 @@ public class ExpressionEvaluator {
             case '/':
                 return leftOperand / rightOperand;
             case '^':
-                return new PowerCalculator().power(leftOperand, rightOperand);
+                return powerCalculator.power(leftOperand, rightOperand);
             default:
             	return 0;
         }
@@ -0,0 +1,15 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The ExpressionFunction interface is implemented by the classes generated by the BytecodeCompiler.
+ */
+interface ExpressionFunction {
+
+    /**
+     * Evaluates the expression the class was generated from.
+     *
+     * @param variables The variable values, indexed by the slots assigned at compile time.
+     * @return The result of the expression evaluation.
+     */
+    double evaluate(double[] variables);
+}
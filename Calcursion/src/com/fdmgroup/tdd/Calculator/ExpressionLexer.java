@@ -0,0 +1,268 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The ExpressionLexer class splits an expression into tokens in a single pass.
+ * It reads the original character sequence by index, skips whitespace and classifies signs,
+ * so no sanitized or re-parenthesized copy of the expression is ever built.
+ * Each token is described by its type, start offset and length in the source.
+ */
+class ExpressionLexer {
+
+    private CharSequence source;
+    private int position;
+    private TokenType tokenType;
+    private int tokenStart;
+    private int tokenLength;
+
+    /**
+     * Starts tokenizing a new expression.
+     *
+     * @param expression The expression to tokenize.
+     */
+    void reset(CharSequence expression) 
+    {
+        source = expression;
+        position = 0;
+        tokenType = null;
+        tokenStart = 0;
+        tokenLength = 0;
+    }
+
+    
+    
+    /**
+     * Advances to the next token.
+     *
+     * @return The type of the token that was read.
+     */
+    TokenType next() 
+    {
+        // Skip whitespace characters
+        int length = source.length();
+        while (position < length && Character.isWhitespace(source.charAt(position))) 
+        {
+            position++;
+        }
+
+        TokenType previous = tokenType;
+        tokenStart = position;
+
+        if (position >= length) 
+        {
+            return setToken(TokenType.END, 0);
+        }
+
+        char c = source.charAt(position);
+        switch (c) 
+        {
+            case '+':
+                return setToken(followsOperator(previous) ? TokenType.POSITIVE_SIGN : TokenType.PLUS, 1);
+            case '-':
+                return setToken(followsOperator(previous) ? TokenType.NEGATIVE_SIGN : TokenType.MINUS, 1);
+            case '*':
+                return setToken(TokenType.MULTIPLY, 1);
+            case '/':
+                return setToken(TokenType.DIVIDE, 1);
+            case '^':
+                return setToken(TokenType.POWER, 1);
+            case '(':
+                return setToken(TokenType.LEFT_PARENTHESIS, 1);
+            case ')':
+                return setToken(TokenType.RIGHT_PARENTHESIS, 1);
+            default:
+                if (isIdentifierStart(c)) 
+                {
+                    return setToken(TokenType.IDENTIFIER, scanIdentifier(position));
+                }
+                int numberLength = scanNumber(position);
+                return setToken(numberLength > 0 ? TokenType.NUMBER : TokenType.ERROR, numberLength > 0 ? numberLength : 1);
+        }
+    }
+
+    
+    
+    /**
+     * Moves the lexer back so that the given token becomes the current token again.
+     *
+     * @param type   The type of the token to return to.
+     * @param start  The start offset of that token.
+     * @param length The length of that token.
+     */
+    void rewind(TokenType type, int start, int length) 
+    {
+        tokenType = type;
+        tokenStart = start;
+        tokenLength = length;
+        position = start + length;
+    }
+
+    
+    
+    TokenType getTokenType() 
+    {
+        return tokenType;
+    }
+
+    
+    
+    int getTokenStart() 
+    {
+        return tokenStart;
+    }
+
+    
+    
+    int getTokenLength() 
+    {
+        return tokenLength;
+    }
+
+    
+    
+    CharSequence getSource() 
+    {
+        return source;
+    }
+
+    
+    
+    /**
+     * Checks if the current NUMBER token is made of digits only.
+     *
+     * @return True if the token is a plain integer literal, false otherwise.
+     */
+    boolean isIntegerToken() 
+    {
+        if (tokenType != TokenType.NUMBER) 
+        {
+            return false;
+        }
+        for (int i = tokenStart; i < tokenStart + tokenLength; i++) 
+        {
+            if (!isDigit(source.charAt(i))) 
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    
+    
+    /**
+     * Records the current token and moves past it.
+     *
+     * @param type   The type of the token.
+     * @param length The number of characters in the token.
+     * @return The type of the token.
+     */
+    private TokenType setToken(TokenType type, int length) 
+    {
+        tokenType = type;
+        tokenLength = length;
+        position += length;
+        return type;
+    }
+
+    
+    
+    /**
+     * Checks if a sign follows another operator, in which case it belongs to the next operand
+     * (the same rule NegativeNumberParenthesesAdder used when wrapping negative numbers).
+     *
+     * @param previous The type of the previous token, or null at the start of the input.
+     * @return True if the previous token is an operator or a sign, false otherwise.
+     */
+    private boolean followsOperator(TokenType previous) 
+    {
+        return previous == TokenType.PLUS || previous == TokenType.MINUS || 
+                previous == TokenType.POSITIVE_SIGN || previous == TokenType.NEGATIVE_SIGN || 
+                previous == TokenType.MULTIPLY || previous == TokenType.DIVIDE || previous == TokenType.POWER;
+    }
+
+    
+    
+    /**
+     * Measures a number literal: digits with an optional fraction and an optional exponent such as "e-3".
+     *
+     * @param start The offset where the literal starts.
+     * @return The length of the literal, or 0 if no number starts at the offset.
+     */
+    private int scanNumber(int start) 
+    {
+        int length = source.length();
+        int index = start;
+        int digits = 0;
+
+        while (index < length && isDigit(source.charAt(index))) 
+        {
+            index++;
+            digits++;
+        }
+        if (index < length && source.charAt(index) == '.') 
+        {
+            index++;
+            while (index < length && isDigit(source.charAt(index))) 
+            {
+                index++;
+                digits++;
+            }
+        }
+        if (digits == 0) 
+        {
+            return 0;
+        }
+
+        // The exponent is only part of the literal if at least one digit follows it
+        if (index < length && (source.charAt(index) == 'e' || source.charAt(index) == 'E')) 
+        {
+            int exponentIndex = index + 1;
+            if (exponentIndex < length && (source.charAt(exponentIndex) == '+' || source.charAt(exponentIndex) == '-')) 
+            {
+                exponentIndex++;
+            }
+            if (exponentIndex < length && isDigit(source.charAt(exponentIndex))) 
+            {
+                index = exponentIndex;
+                while (index < length && isDigit(source.charAt(index))) 
+                {
+                    index++;
+                }
+            }
+        }
+        return index - start;
+    }
+
+    
+    
+    /**
+     * Measures a variable name: a letter or underscore followed by letters, digits or underscores.
+     *
+     * @param start The offset where the name starts.
+     * @return The length of the name.
+     */
+    private int scanIdentifier(int start) 
+    {
+        int length = source.length();
+        int index = start + 1;
+        while (index < length && (isIdentifierStart(source.charAt(index)) || isDigit(source.charAt(index)))) 
+        {
+            index++;
+        }
+        return index - start;
+    }
+
+    
+    
+    private static boolean isIdentifierStart(char c) 
+    {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    
+    
+    private static boolean isDigit(char c) 
+    {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,68 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+
+/**
+ * The ExpressionNode class is the base of the immutable tree produced when an expression is compiled.
+ */
+abstract class ExpressionNode {
+
+    /**
+     * Evaluates the sub-expression represented by this node.
+     *
+     * @param variables The variable values, indexed by the slots assigned at compile time.
+     * @return The result of the sub-expression evaluation.
+     */
+    abstract double evaluate(double[] variables);
+
+    
+    
+    /**
+     * Counts the nodes of a tree, walking it with an explicit stack.
+     *
+     * @param root The root node of the tree.
+     * @return The number of nodes in the tree.
+     */
+    static int countNodes(ExpressionNode root) 
+    {
+        ExpressionNode[] pending = new ExpressionNode[16];
+        int pendingCount = 0;
+        int nodeCount = 0;
+
+        pending[pendingCount++] = root;
+        while (pendingCount > 0) 
+        {
+            ExpressionNode node = pending[--pendingCount];
+            nodeCount++;
+            if (pendingCount + 2 > pending.length) 
+            {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            if (node instanceof BinaryOperationNode) 
+            {
+                pending[pendingCount++] = ((BinaryOperationNode) node).getLeft();
+                pending[pendingCount++] = ((BinaryOperationNode) node).getRight();
+            }
+            else if (node instanceof FractionalPowerNode) 
+            {
+                pending[pendingCount++] = ((FractionalPowerNode) node).getBase();
+            }
+            else if (node instanceof DecimalPowerNode) 
+            {
+                pending[pendingCount++] = ((DecimalPowerNode) node).getBase();
+            }
+            else if (node instanceof IntegerPowerNode) 
+            {
+                pending[pendingCount++] = ((IntegerPowerNode) node).getBase();
+            }
+            else if (node instanceof SumNode) 
+            {
+                ExpressionNode[] terms = ((SumNode) node).getTerms();
+                pending = Arrays.copyOf(pending, Math.max(pending.length, pendingCount + terms.length));
+                System.arraycopy(terms, 0, pending, pendingCount, terms.length);
+                pendingCount += terms.length;
+            }
+        }
+        return nodeCount;
+    }
+}
@@ -0,0 +1,536 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ExpressionParser class builds an expression tree from the tokens of an ExpressionLexer.
+ * Operators of the same precedence are grouped from the left, matching the "split on the last operator"
+ * rule of ExpressionEvaluator, and exponentiation binds tighter than multiplication and division.
+ * Pending operators and operands are kept on explicit stacks rather than the call stack,
+ * so parsing takes linear time and fixed stack space however long or deeply nested the expression is.
+ */
+class ExpressionParser {
+
+    private static final NumberNode ZERO = new NumberNode(0.0);
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    // Markers kept on the operator stack next to the binary operator characters
+    private static final char LEFT_PARENTHESIS = '(';
+    private static final char NEGATE = '~';
+
+    private final ExpressionLexer lexer = new ExpressionLexer();
+    private final List<String> variableNames;
+    private final Map<String, Integer> variableIndexes = new HashMap<String, Integer>();
+    private final boolean acceptsNewVariables;
+
+    private char[] operators = new char[16];
+    private int operatorCount;
+    private ExpressionNode[] operands = new ExpressionNode[16];
+    private int operandCount;
+
+    /**
+     * Creates a parser for expressions made of literals only.
+     */
+    ExpressionParser() 
+    {
+        this(new ArrayList<String>(), false);
+    }
+
+    
+    
+    /**
+     * Creates a parser that resolves variable names to slots.
+     *
+     * @param variableNames       The names already assigned to slots, in slot order; new names are appended.
+     * @param acceptsNewVariables True to give unknown names the next free slot, false to reject them.
+     */
+    ExpressionParser(List<String> variableNames, boolean acceptsNewVariables) 
+    {
+        this.variableNames = variableNames;
+        this.acceptsNewVariables = acceptsNewVariables;
+        for (int i = 0; i < variableNames.size(); i++) 
+        {
+            variableIndexes.put(variableNames.get(i), i);
+        }
+    }
+
+    
+    
+    /**
+     * Returns the variable names in slot order.
+     *
+     * @return The variable names resolved so far.
+     */
+    List<String> getVariableNames() 
+    {
+        return variableNames;
+    }
+
+    
+    
+    /**
+     * Parses the expression into a tree of nodes.
+     *
+     * @param expression The expression to parse.
+     * @return The root node of the expression tree.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    ExpressionNode parse(CharSequence expression) 
+    {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        ExpressionNode root = parseTree(expression);
+        if (event.shouldCommit()) 
+        {
+            event.expressionLength = expression.length();
+            event.nodeCount = ExpressionNode.countNodes(root);
+            event.commit();
+        }
+        return root;
+    }
+
+    
+    
+    /**
+     * Parses the expression into a tree of nodes; parse adds the Flight Recorder event around this.
+     */
+    private ExpressionNode parseTree(CharSequence expression) 
+    {
+        lexer.reset(expression);
+        operatorCount = 0;
+        operandCount = 0;
+
+        // An empty expression evaluates to zero
+        if (lexer.next() == TokenType.END) 
+        {
+            return ZERO;
+        }
+
+        try 
+        {
+            boolean expectOperand = true;
+            while (true) 
+            {
+                TokenType type = lexer.getTokenType();
+                if (expectOperand) 
+                {
+                    expectOperand = readOperandToken(type);
+                }
+                else if (type == TokenType.END) 
+                {
+                    break;
+                }
+                else 
+                {
+                    expectOperand = readOperatorToken(type);
+                }
+                lexer.next();
+            }
+
+            // Apply the remaining operators; a parenthesis left over was never closed
+            reduce(LEFT_PARENTHESIS);
+            if (operatorCount > 0) 
+            {
+                throw new IllegalArgumentException("Missing ')' at end of expression");
+            }
+            return operands[0];
+        }
+        finally 
+        {
+            // Do not keep the tree reachable from a parser that is reused
+            Arrays.fill(operands, 0, operandCount, null);
+        }
+    }
+
+    
+    
+    /**
+     * Handles a token found where an operand is expected.
+     * A sign opening the expression or a group applies to the whole first term, as in "0 - term";
+     * a sign following another operator only applies to the operand right after it.
+     *
+     * @param type The type of the token.
+     * @return True if an operand is still expected after the token, false otherwise.
+     */
+    private boolean readOperandToken(TokenType type) 
+    {
+        switch (type) 
+        {
+            case NUMBER:
+                pushOperand(new NumberNode(parseNumber()));
+                return false;
+            case IDENTIFIER:
+                pushOperand(resolveVariable());
+                return false;
+            case LEFT_PARENTHESIS:
+                pushOperator(LEFT_PARENTHESIS);
+                return true;
+            case PLUS:
+            case MINUS:
+                pushOperand(ZERO);
+                pushOperator(operatorOf(type));
+                return true;
+            case NEGATIVE_SIGN:
+                pushOperator(NEGATE);
+                return true;
+            case POSITIVE_SIGN:
+                return true;
+            default:
+                throw unexpectedToken();
+        }
+    }
+
+    
+    
+    /**
+     * Handles a token found after a complete operand.
+     *
+     * @param type The type of the token.
+     * @return True if an operand is expected after the token, false otherwise.
+     */
+    private boolean readOperatorToken(TokenType type) 
+    {
+        switch (type) 
+        {
+            case PLUS:
+            case MINUS:
+            case MULTIPLY:
+            case DIVIDE:
+                char operator = operatorOf(type);
+                reduce(operator);
+                pushOperator(operator);
+                return true;
+            case POWER:
+                reduce('^');
+
+                // A literal fraction such as "(2/3)" completes the power right away
+                if (readFractionalExponent()) 
+                {
+                    return false;
+                }
+                pushOperator('^');
+                return true;
+            case RIGHT_PARENTHESIS:
+                reduce(LEFT_PARENTHESIS);
+                if (operatorCount == 0) 
+                {
+                    throw unexpectedToken();
+                }
+                operatorCount--;
+                return false;
+            default:
+                throw unexpectedToken();
+        }
+    }
+
+    
+    
+    /**
+     * Applies the pending operators that bind at least as tightly as the incoming operator.
+     * Every operator is left-associative; passing '(' applies all operators back to the innermost open parenthesis.
+     *
+     * @param incoming The incoming operator.
+     */
+    private void reduce(char incoming) 
+    {
+        int precedence = precedenceOf(incoming);
+        while (operatorCount > 0 && operators[operatorCount - 1] != LEFT_PARENTHESIS && 
+                precedenceOf(operators[operatorCount - 1]) >= precedence) 
+        {
+            char operator = operators[--operatorCount];
+            ExpressionNode right = operands[--operandCount];
+            if (operator == NEGATE) 
+            {
+                pushOperand(negate(right));
+            }
+            else if (operator == '^') 
+            {
+                ExpressionNode left = operands[--operandCount];
+                pushOperand(createPower(left, right));
+            }
+            else 
+            {
+                ExpressionNode left = operands[--operandCount];
+                pushOperand(new BinaryOperationNode(operator, left, right));
+            }
+        }
+    }
+
+    
+    
+    /**
+     * Applies a negative sign to an operand.
+     * A negative literal is computed right away, so that an exponent such as "-3" can be classified at parse time.
+     *
+     * @param operand The operand.
+     * @return The node for "0 - operand".
+     */
+    private static ExpressionNode negate(ExpressionNode operand) 
+    {
+        if (operand instanceof NumberNode) 
+        {
+            return new NumberNode(0.0 - ((NumberNode) operand).getValue());
+        }
+        return new BinaryOperationNode('-', ZERO, operand);
+    }
+
+    
+    
+    /**
+     * Creates the node for the ^ operator according to the kind of its exponent.
+     * A signed literal in parentheses such as "(-3)" is parsed as "0 - 3"; it is folded to the literal
+     * here, so it is classified like "-3".
+     *
+     * @param base     The base operand.
+     * @param exponent The exponent operand.
+     * @return The power node.
+     */
+    static ExpressionNode createPower(ExpressionNode base, ExpressionNode exponent) 
+    {
+        exponent = foldSignedLiteral(exponent);
+        switch (ExponentKind.of(exponent)) 
+        {
+            case INTEGER:
+                return new IntegerPowerNode(base, (int) ((NumberNode) exponent).getValue());
+            case RATIONAL:
+                int[] fraction = POWER_CALCULATOR.decimalToFraction(((NumberNode) exponent).getValue());
+                return new DecimalPowerNode(base, fraction[0], fraction[1]);
+            default:
+                return new BinaryOperationNode('^', base, exponent);
+        }
+    }
+
+    
+    
+    /**
+     * Folds the node a sign opening a group builds around a literal, "0 - literal" or "0 + literal", into one literal.
+     * The value is computed exactly as evaluating the node would compute it.
+     *
+     * @param node The node to fold.
+     * @return The literal, or the node itself if it has another shape.
+     */
+    private static ExpressionNode foldSignedLiteral(ExpressionNode node) 
+    {
+        if (!(node instanceof BinaryOperationNode)) 
+        {
+            return node;
+        }
+        BinaryOperationNode operation = (BinaryOperationNode) node;
+        if (operation.getLeft() != ZERO || !(operation.getRight() instanceof NumberNode)) 
+        {
+            return node;
+        }
+        double value = ((NumberNode) operation.getRight()).getValue();
+        switch (operation.getOperator()) 
+        {
+            case '-':
+                return new NumberNode(0.0 - value);
+            case '+':
+                return new NumberNode(0.0 + value);
+            default:
+                return node;
+        }
+    }
+
+    
+    
+    /**
+     * Tries to read an exponent of the form "([+-]integer/integer)" after the current ^ token
+     * and apply it to the operand on top of the stack.
+     * If the tokens do not match, the lexer is moved back to the ^ token.
+     *
+     * @return True if a fractional exponent was read, false otherwise.
+     */
+    private boolean readFractionalExponent() 
+    {
+        int powerStart = lexer.getTokenStart();
+        if (lexer.next() != TokenType.LEFT_PARENTHESIS) 
+        {
+            lexer.rewind(TokenType.POWER, powerStart, 1);
+            return false;
+        }
+
+        boolean negative = false;
+        TokenType type = lexer.next();
+        if (type == TokenType.PLUS || type == TokenType.MINUS) 
+        {
+            negative = type == TokenType.MINUS;
+            lexer.next();
+        }
+
+        long numerator = lexer.isIntegerToken() ? parseInteger() : -1;
+        long denominator = -1;
+        if (numerator >= 0 && lexer.next() == TokenType.DIVIDE && lexer.next() == TokenType.NUMBER && lexer.isIntegerToken()) 
+        {
+            denominator = parseInteger();
+        }
+
+        if (denominator < 0 || lexer.next() != TokenType.RIGHT_PARENTHESIS) 
+        {
+            lexer.rewind(TokenType.POWER, powerStart, 1);
+            return false;
+        }
+
+        ExpressionNode base = operands[--operandCount];
+        pushOperand(new FractionalPowerNode(base, (int) (negative ? -numerator : numerator), (int) denominator));
+        return true;
+    }
+
+    
+    
+    private void pushOperator(char operator) 
+    {
+        if (operatorCount == operators.length) 
+        {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+        }
+        operators[operatorCount++] = operator;
+    }
+
+    
+    
+    private void pushOperand(ExpressionNode operand) 
+    {
+        if (operandCount == operands.length) 
+        {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = operand;
+    }
+
+    
+    
+    /**
+     * Returns the binding strength of an operator; a negative sign binds tighter than any binary operator.
+     *
+     * @param operator The operator character.
+     * @return The precedence of the operator.
+     */
+    private static int precedenceOf(char operator) 
+    {
+        switch (operator) 
+        {
+            case '+':
+            case '-':
+                return 1;
+            case '*':
+            case '/':
+                return 2;
+            case '^':
+                return 3;
+            case NEGATE:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    
+    
+    /**
+     * Resolves the current IDENTIFIER token to its variable slot.
+     *
+     * @return The node reading the variable.
+     * @throws IllegalArgumentException If the name is unknown and new variables are not accepted.
+     */
+    private VariableNode resolveVariable() 
+    {
+        int start = lexer.getTokenStart();
+        String name = lexer.getSource().subSequence(start, start + lexer.getTokenLength()).toString();
+
+        Integer index = variableIndexes.get(name);
+        if (index == null) 
+        {
+            if (!acceptsNewVariables) 
+            {
+                throw new IllegalArgumentException("Unknown variable '" + name + "' at position " + start);
+            }
+            index = variableNames.size();
+            variableNames.add(name);
+            variableIndexes.put(name, index);
+        }
+        return new VariableNode(name, index);
+    }
+
+    
+    
+    /**
+     * Parses the current NUMBER token as a double, reading its digits in place.
+     *
+     * @return The value of the literal.
+     */
+    private double parseNumber() 
+    {
+        int start = lexer.getTokenStart();
+        return NumberParser.parse(lexer.getSource(), start, start + lexer.getTokenLength());
+    }
+
+    
+    
+    /**
+     * Parses the current integer token without creating a string.
+     *
+     * @return The value of the integer, or -1 if it does not fit in an int.
+     */
+    private long parseInteger() 
+    {
+        CharSequence source = lexer.getSource();
+        long value = 0;
+        for (int i = lexer.getTokenStart(); i < lexer.getTokenStart() + lexer.getTokenLength(); i++) 
+        {
+            value = value * 10 + (source.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) 
+            {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    
+    
+    /**
+     * Maps an operator token to its operator character.
+     *
+     * @param type The token type.
+     * @return The operator character.
+     */
+    private static char operatorOf(TokenType type) 
+    {
+        switch (type) 
+        {
+            case PLUS:
+                return '+';
+            case MINUS:
+                return '-';
+            case MULTIPLY:
+                return '*';
+            case DIVIDE:
+                return '/';
+            default:
+                return '^';
+        }
+    }
+
+    
+    
+    /**
+     * Creates the exception reported for a token that cannot appear at the current position.
+     *
+     * @return The exception to throw.
+     */
+    private IllegalArgumentException unexpectedToken() 
+    {
+        if (lexer.getTokenType() == TokenType.END) 
+        {
+            return new IllegalArgumentException("Unexpected end of expression");
+        }
+        int start = lexer.getTokenStart();
+        CharSequence token = lexer.getSource().subSequence(start, start + lexer.getTokenLength());
+        return new IllegalArgumentException("Unexpected '" + token + "' at position " + start);
+    }
+}
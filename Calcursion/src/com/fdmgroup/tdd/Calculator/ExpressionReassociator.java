@@ -0,0 +1,280 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The ExpressionReassociator class regroups the runs of + and - and the runs of * in an expression tree,
+ * as selected by a Reassociation.
+ * A run is every operand reachable from its top node through operators of the same kind, on either side,
+ * so a + (b - c) is the run a + b - c. Balancing leaves a run of three terms built by the parser exactly as it was.
+ * The tree is walked bottom-up with explicit stacks; runs are merged by moving the terms of the smaller run
+ * into the larger one, so even very deep chains are regrouped in O(n log n) time and fixed stack space.
+ */
+final class ExpressionReassociator {
+
+    private final Reassociation reassociation;
+
+    /**
+     * Creates a reassociator.
+     *
+     * @param reassociation How runs of + and - are regrouped.
+     */
+    ExpressionReassociator(Reassociation reassociation) 
+    {
+        this.reassociation = reassociation;
+    }
+
+    
+    
+    /**
+     * Regroups the runs of an expression tree; the original tree is not changed.
+     *
+     * @param root The root node of the expression tree.
+     * @return The root node of the regrouped tree.
+     */
+    ExpressionNode reassociate(ExpressionNode root) 
+    {
+        // Visiting node, right, left from a stack yields the reverse of the post-order
+        List<ExpressionNode> reversed = new ArrayList<ExpressionNode>();
+        List<ExpressionNode> pending = new ArrayList<ExpressionNode>();
+        pending.add(root);
+        while (!pending.isEmpty()) 
+        {
+            ExpressionNode node = pending.remove(pending.size() - 1);
+            reversed.add(node);
+            if (node instanceof BinaryOperationNode) 
+            {
+                pending.add(((BinaryOperationNode) node).getLeft());
+                pending.add(((BinaryOperationNode) node).getRight());
+            }
+            else if (baseOf(node) != null) 
+            {
+                pending.add(baseOf(node));
+            }
+        }
+
+        // Each operand is a rebuilt node, or the run of terms of a + or * node not yet turned back into nodes
+        List<Object> operands = new ArrayList<Object>();
+        for (int i = reversed.size() - 1; i >= 0; i--) 
+        {
+            ExpressionNode node = reversed.get(i);
+            if (node instanceof BinaryOperationNode) 
+            {
+                Object right = operands.remove(operands.size() - 1);
+                Object left = operands.remove(operands.size() - 1);
+                operands.add(reassociateBinary((BinaryOperationNode) node, left, right));
+            }
+            else if (baseOf(node) != null) 
+            {
+                operands.add(rebuildPower(node, build(operands.remove(operands.size() - 1))));
+            }
+            else 
+            {
+                operands.add(node);
+            }
+        }
+        return build(operands.get(0));
+    }
+
+    
+    
+    private Object reassociateBinary(BinaryOperationNode node, Object left, Object right) 
+    {
+        char operator = node.getOperator();
+        if (operator == '+' || operator == '-') 
+        {
+            Run terms = runOf(left, '+');
+            Run rightTerms = runOf(right, '+');
+            rightTerms.negated ^= operator == '-';
+            return terms.merge(rightTerms);
+        }
+        if (operator == '*') 
+        {
+            return runOf(left, '*').merge(runOf(right, '*'));
+        }
+
+        ExpressionNode leftNode = build(left);
+        ExpressionNode rightNode = build(right);
+        return leftNode == node.getLeft() && rightNode == node.getRight() ? node : new BinaryOperationNode(operator, leftNode, rightNode);
+    }
+
+    
+    
+    /**
+     * Returns the operand itself if it is a run of the operator, or a run holding it as the only term.
+     */
+    private Run runOf(Object operand, char operator) 
+    {
+        if (operand instanceof Run && ((Run) operand).operator == operator) 
+        {
+            return (Run) operand;
+        }
+        Run run = new Run(operator);
+        run.terms.add(new Term(build(operand), false));
+        return run;
+    }
+
+    
+    
+    /**
+     * Turns an operand back into a node, building the regrouped tree of a run.
+     */
+    private ExpressionNode build(Object operand) 
+    {
+        if (operand instanceof ExpressionNode) 
+        {
+            return (ExpressionNode) operand;
+        }
+
+        Run run = (Run) operand;
+        ExpressionNode[] terms = new ExpressionNode[run.terms.size()];
+        boolean[] subtracted = new boolean[terms.length];
+        int index = 0;
+        for (Term term : run.terms) 
+        {
+            terms[index] = term.node;
+            subtracted[index++] = term.subtracted ^ run.negated;
+        }
+        if (run.operator == '+' && reassociation == Reassociation.COMPENSATED && terms.length > 2) 
+        {
+            return new SumNode(terms, subtracted);
+        }
+        Term balanced = balance(run.operator, terms, subtracted, 0, terms.length);
+        return balanced.subtracted ? new BinaryOperationNode('-', new NumberNode(0), balanced.node) : balanced.node;
+    }
+
+    
+    
+    /**
+     * Builds a balanced tree over the terms from start to end, with the larger half on the left so that
+     * three terms give the parser's own grouping. A half whose terms are all subtracted is built as their sum
+     * and marked as negated, to be subtracted by the node above it.
+     * The recursion is only log2 of the number of terms deep.
+     */
+    private static Term balance(char operator, ExpressionNode[] terms, boolean[] subtracted, int start, int end) 
+    {
+        if (end - start == 1) 
+        {
+            return new Term(terms[start], subtracted[start]);
+        }
+        int middle = start + (end - start + 1) / 2;
+        Term left = balance(operator, terms, subtracted, start, middle);
+        Term right = balance(operator, terms, subtracted, middle, end);
+        if (operator == '*') 
+        {
+            return new Term(new BinaryOperationNode('*', left.node, right.node), false);
+        }
+        if (left.subtracted == right.subtracted) 
+        {
+            return new Term(new BinaryOperationNode('+', left.node, right.node), left.subtracted);
+        }
+        return left.subtracted
+                ? new Term(new BinaryOperationNode('-', right.node, left.node), false)
+                : new Term(new BinaryOperationNode('-', left.node, right.node), false);
+    }
+
+    
+    
+    private static ExpressionNode rebuildPower(ExpressionNode node, ExpressionNode base) 
+    {
+        if (base == baseOf(node)) 
+        {
+            return node;
+        }
+        if (node instanceof FractionalPowerNode) 
+        {
+            FractionalPowerNode power = (FractionalPowerNode) node;
+            return new FractionalPowerNode(base, power.getNumerator(), power.getDenominator());
+        }
+        if (node instanceof DecimalPowerNode) 
+        {
+            DecimalPowerNode power = (DecimalPowerNode) node;
+            return new DecimalPowerNode(base, power.getNumerator(), power.getDenominator());
+        }
+        return new IntegerPowerNode(base, ((IntegerPowerNode) node).getExponent());
+    }
+
+    
+    
+    private static ExpressionNode baseOf(ExpressionNode node) 
+    {
+        if (node instanceof FractionalPowerNode) 
+        {
+            return ((FractionalPowerNode) node).getBase();
+        }
+        if (node instanceof DecimalPowerNode) 
+        {
+            return ((DecimalPowerNode) node).getBase();
+        }
+        if (node instanceof IntegerPowerNode) 
+        {
+            return ((IntegerPowerNode) node).getBase();
+        }
+        return null;
+    }
+
+    
+    
+    /**
+     * One operand of a run, possibly subtracted.
+     */
+    private static final class Term {
+
+        private final ExpressionNode node;
+        private boolean subtracted;
+
+        Term(ExpressionNode node, boolean subtracted) 
+        {
+            this.node = node;
+            this.subtracted = subtracted;
+        }
+    }
+
+    
+    
+    /**
+     * The terms of a run in order. Negating a run only flips its flag, so merging touches the smaller run alone.
+     */
+    private static final class Run {
+
+        private final char operator;
+        private final ArrayDeque<Term> terms = new ArrayDeque<Term>();
+        private boolean negated;
+
+        Run(char operator) 
+        {
+            this.operator = operator;
+        }
+
+        
+        
+        /**
+         * Appends the terms of another run after the terms of this one.
+         *
+         * @return The merged run, which is whichever of the two was larger.
+         */
+        Run merge(Run right) 
+        {
+            if (terms.size() >= right.terms.size()) 
+            {
+                for (Term term : right.terms) 
+                {
+                    term.subtracted ^= right.negated ^ negated;
+                    terms.addLast(term);
+                }
+                return this;
+            }
+            Iterator<Term> backwards = terms.descendingIterator();
+            while (backwards.hasNext()) 
+            {
+                Term term = backwards.next();
+                term.subtracted ^= negated ^ right.negated;
+                right.terms.addFirst(term);
+            }
+            return right;
+        }
+    }
+}
@@ -14,7 +14,17 @@ public class ExpressionSanitizer {
     public String sanitizeInput(String expression) 
     {
     	// Remove whitespace characters from the expression
-        return sanitizeInputRecursive(expression, 0, new StringBuilder());
+    	if (!CalculatorMetrics.isRecording()) 
+    	{
+    		return sanitizeInputRecursive(expression, 0, new StringBuilder());
+    	}
+    	
+    	CalculatorMetrics metrics = CalculatorMetrics.get();
+    	long startNanos = System.nanoTime();
+    	long startBytes = metrics.allocatedBytes();
+    	String sanitized = sanitizeInputRecursive(expression, 0, new StringBuilder());
+    	metrics.record(CalculatorMetrics.Stage.SANITIZE, startNanos, startBytes);
+    	return sanitized;
     }
     
     
@@ -0,0 +1,267 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+
+/**
+ * The ExpressionSimplifier class rewrites an expression tree into a smaller tree that evaluates to the same results.
+ * Subtrees without variables are folded into a single number by evaluating them once, with the same nodes
+ * that would evaluate them at run time, and the identities x + 0, 0 + x, x - 0, x * 1, 1 * x, x / 1, x ^ 1 and
+ * x ^ 0 are removed. Folding also removes the "(0 - n)" groups that NegativeNumberParenthesesAdder writes
+ * around negative numbers, and a ^ whose exponent folds to a number becomes the same power node the parser
+ * would have built for a literal exponent.
+ * The only difference in results is the sign of zero: x + 0 gives 0.0 where x is -0.0, while x is kept as it is.
+ * The tree is walked with explicit stacks, so simplifying takes fixed stack space however deep the tree is.
+ */
+final class ExpressionSimplifier {
+
+    private static final NumberNode ONE = new NumberNode(1.0);
+
+    private int removedNodeCount;
+
+    /**
+     * Returns the number of nodes removed by the last call to simplify.
+     *
+     * @return The difference between the node counts of the original and the simplified tree.
+     */
+    int getRemovedNodeCount() 
+    {
+        return removedNodeCount;
+    }
+
+    
+    
+    /**
+     * Simplifies an expression tree; the original tree is not changed.
+     *
+     * @param root The root node of the expression tree.
+     * @return The root node of the simplified tree, or the original root if nothing could be simplified.
+     */
+    ExpressionNode simplify(ExpressionNode root) 
+    {
+        ExpressionNode[] postOrder = postOrder(root);
+
+        // Rebuild bottom-up: each node takes its simplified operands from the top of the stack
+        ExpressionNode[] operands = new ExpressionNode[16];
+        int operandCount = 0;
+        int nodeCount = 0;
+        for (int i = postOrder.length - 1; i >= 0; i--) 
+        {
+            ExpressionNode node = postOrder[i];
+            ExpressionNode simplified;
+            if (node instanceof BinaryOperationNode) 
+            {
+                ExpressionNode right = operands[--operandCount];
+                ExpressionNode left = operands[--operandCount];
+                simplified = simplifyBinary((BinaryOperationNode) node, left, right);
+            }
+            else if (node instanceof NumberNode || node instanceof VariableNode) 
+            {
+                simplified = node;
+            }
+            else if (node instanceof SumNode) 
+            {
+                int termCount = ((SumNode) node).getTerms().length;
+                operandCount -= termCount;
+                simplified = simplifySum((SumNode) node, Arrays.copyOfRange(operands, operandCount, operandCount + termCount));
+            }
+            else 
+            {
+                simplified = simplifyPower(node, operands[--operandCount]);
+            }
+
+            if (operandCount == operands.length) 
+            {
+                operands = Arrays.copyOf(operands, operandCount * 2);
+            }
+            operands[operandCount++] = simplified;
+            nodeCount++;
+        }
+
+        ExpressionNode result = operands[0];
+        removedNodeCount = nodeCount - ExpressionNode.countNodes(result);
+        return result;
+    }
+
+    
+    
+    /**
+     * Simplifies a binary operation whose operands have already been simplified.
+     */
+    private static ExpressionNode simplifyBinary(BinaryOperationNode node, ExpressionNode left, ExpressionNode right) 
+    {
+        char operator = node.getOperator();
+        if (left instanceof NumberNode && right instanceof NumberNode) 
+        {
+            return fold(new BinaryOperationNode(operator, left, right));
+        }
+
+        switch (operator) 
+        {
+            case '+':
+                if (isNumber(right, 0)) 
+                {
+                    return left;
+                }
+                if (isNumber(left, 0)) 
+                {
+                    return right;
+                }
+                break;
+            case '-':
+                if (isNumber(right, 0)) 
+                {
+                    return left;
+                }
+                break;
+            case '*':
+                if (isNumber(right, 1)) 
+                {
+                    return left;
+                }
+                if (isNumber(left, 1)) 
+                {
+                    return right;
+                }
+                break;
+            case '/':
+                if (isNumber(right, 1)) 
+                {
+                    return left;
+                }
+                break;
+            case '^':
+                if (right instanceof NumberNode) 
+                {
+                    // A folded exponent is classified like a literal one; the power node handles ^ 1 and ^ 0
+                    return simplifyPower(ExpressionParser.createPower(left, right), left);
+                }
+                break;
+            default:
+                break;
+        }
+        return left == node.getLeft() && right == node.getRight() ? node : new BinaryOperationNode(operator, left, right);
+    }
+
+    
+    
+    /**
+     * Rebuilds a compensated sum from its simplified terms, folding it if they are all numbers.
+     */
+    private static ExpressionNode simplifySum(SumNode node, ExpressionNode[] terms) 
+    {
+        boolean changed = false;
+        boolean constant = true;
+        for (int i = 0; i < terms.length; i++) 
+        {
+            changed |= terms[i] != node.getTerms()[i];
+            constant &= terms[i] instanceof NumberNode;
+        }
+        ExpressionNode sum = changed ? new SumNode(terms, node.getSubtracted()) : node;
+        return constant ? fold(sum) : sum;
+    }
+
+    
+    
+    /**
+     * Simplifies one of the power nodes, whose base has already been simplified.
+     */
+    private static ExpressionNode simplifyPower(ExpressionNode node, ExpressionNode base) 
+    {
+        if (node instanceof IntegerPowerNode) 
+        {
+            IntegerPowerNode power = (IntegerPowerNode) node;
+            if (power.getExponent() == 1) 
+            {
+                return base;
+            }
+            if (power.getExponent() == 0) 
+            {
+                return ONE;
+            }
+            node = base == power.getBase() ? node : new IntegerPowerNode(base, power.getExponent());
+        }
+        else if (node instanceof FractionalPowerNode) 
+        {
+            FractionalPowerNode power = (FractionalPowerNode) node;
+            node = base == power.getBase() ? node : new FractionalPowerNode(base, power.getNumerator(), power.getDenominator());
+        }
+        else if (node instanceof DecimalPowerNode) 
+        {
+            DecimalPowerNode power = (DecimalPowerNode) node;
+            node = base == power.getBase() ? node : new DecimalPowerNode(base, power.getNumerator(), power.getDenominator());
+        }
+        return base instanceof NumberNode ? fold(node) : node;
+    }
+
+    
+    
+    /**
+     * Evaluates a node whose operands are all numbers, so the folded value matches evaluation at run time.
+     */
+    private static NumberNode fold(ExpressionNode node) 
+    {
+        return new NumberNode(node.evaluate(null));
+    }
+
+    
+    
+    private static boolean isNumber(ExpressionNode node, double value) 
+    {
+        return node instanceof NumberNode && ((NumberNode) node).getValue() == value;
+    }
+
+    
+    
+    /**
+     * Lists the nodes of a tree so that reading the array from the end gives the post-order.
+     */
+    private static ExpressionNode[] postOrder(ExpressionNode root) 
+    {
+        // Visiting node, right, left from a stack yields the reverse of the post-order
+        ExpressionNode[] pending = new ExpressionNode[16];
+        ExpressionNode[] reversed = new ExpressionNode[16];
+        int pendingCount = 0;
+        int nodeCount = 0;
+
+        pending[pendingCount++] = root;
+        while (pendingCount > 0) 
+        {
+            ExpressionNode node = pending[--pendingCount];
+            if (nodeCount == reversed.length) 
+            {
+                reversed = Arrays.copyOf(reversed, nodeCount * 2);
+            }
+            reversed[nodeCount++] = node;
+
+            if (pendingCount + 2 > pending.length) 
+            {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            if (node instanceof BinaryOperationNode) 
+            {
+                pending[pendingCount++] = ((BinaryOperationNode) node).getLeft();
+                pending[pendingCount++] = ((BinaryOperationNode) node).getRight();
+            }
+            else if (node instanceof FractionalPowerNode) 
+            {
+                pending[pendingCount++] = ((FractionalPowerNode) node).getBase();
+            }
+            else if (node instanceof DecimalPowerNode) 
+            {
+                pending[pendingCount++] = ((DecimalPowerNode) node).getBase();
+            }
+            else if (node instanceof IntegerPowerNode) 
+            {
+                pending[pendingCount++] = ((IntegerPowerNode) node).getBase();
+            }
+            else if (node instanceof SumNode) 
+            {
+                ExpressionNode[] terms = ((SumNode) node).getTerms();
+                pending = Arrays.copyOf(pending, Math.max(pending.length, pendingCount + terms.length));
+                System.arraycopy(terms, 0, pending, pendingCount, terms.length);
+                pendingCount += terms.length;
+            }
+        }
+        return Arrays.copyOf(reversed, nodeCount);
+    }
+}
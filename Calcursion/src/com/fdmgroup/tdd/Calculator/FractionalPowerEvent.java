@@ -0,0 +1,35 @@
+package com.fdmgroup.tdd.Calculator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The FractionalPowerEvent class is a Java Flight Recorder event for one call to PowerCalculator
+ * with a non-integer exponent, including the prime checks and roots it takes.
+ */
+@Name("com.fdmgroup.tdd.Calculator.FractionalPower")
+@Label("Fractional Power")
+@Description("A power with a non-integer exponent")
+@Category("Calcursion")
+@Enabled(false)
+@StackTrace(false)
+final class FractionalPowerEvent extends Event {
+
+    @Label("Base")
+    double base;
+
+    @Label("Numerator")
+    int numerator;
+
+    @Label("Denominator")
+    int denominator;
+
+    @Label("Exponent Kind")
+    @Description("RATIONAL for a fraction or decimal known as a fraction, REAL for an exponent converted at evaluation time")
+    String exponentKind;
+}
@@ -0,0 +1,57 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The FractionalPowerNode class represents a base raised to a literal fraction such as "(2/3)".
+ * The numerator and denominator are parsed once at compile time.
+ */
+final class FractionalPowerNode extends ExpressionNode {
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    private final ExpressionNode base;
+    private final int numerator;
+    private final int denominator;
+
+    /**
+     * Creates a node raising a base to a fractional exponent.
+     *
+     * @param base        The base operand.
+     * @param numerator   The numerator of the exponent.
+     * @param denominator The denominator of the exponent.
+     */
+    FractionalPowerNode(ExpressionNode base, int numerator, int denominator) 
+    {
+        this.base = base;
+        this.numerator = numerator;
+        this.denominator = denominator;
+    }
+
+    
+    
+    ExpressionNode getBase() 
+    {
+        return base;
+    }
+
+    
+    
+    int getNumerator() 
+    {
+        return numerator;
+    }
+
+    
+    
+    int getDenominator() 
+    {
+        return denominator;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        return POWER_CALCULATOR.power(base.evaluate(variables), numerator, denominator);
+    }
+}
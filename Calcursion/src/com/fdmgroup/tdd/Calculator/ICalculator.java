@@ -1,6 +1,65 @@
 package com.fdmgroup.tdd.Calculator;
 
+import java.util.List;
+
 public interface ICalculator {
 	
 	double evaluate(String expression);
+	
+	
+	
+    /**
+     * Evaluates the expression, reporting malformed input in the result instead of throwing.
+     * This default catches the exception evaluate throws; Calculator checks the syntax up front instead.
+     *
+     * @param expression The expression to evaluate.
+     * @return The value of the expression, or the reason it could not be evaluated.
+     */
+	default EvaluationResult tryEvaluate(String expression) 
+	{
+		try 
+		{
+			return EvaluationResult.success(evaluate(expression));
+		}
+		catch (RuntimeException e) 
+		{
+			return EvaluationResult.failure(EvaluationError.INVALID_EXPRESSION, -1, e.getMessage());
+		}
+	}
+	
+	
+	
+    /**
+     * Evaluates a batch of expressions.
+     *
+     * @param expressions The expressions to evaluate.
+     * @return The results, in the same order as the expressions.
+     */
+	default double[] evaluateAll(List<String> expressions) 
+	{
+		double[] results = new double[expressions.size()];
+		evaluateAll(expressions, results);
+		return results;
+	}
+	
+	
+	
+    /**
+     * Evaluates a batch of expressions into a caller-supplied array.
+     *
+     * @param expressions The expressions to evaluate.
+     * @param results     The array receiving the result of expression i at index i.
+     * @throws IllegalArgumentException If the array is shorter than the list of expressions.
+     */
+	default void evaluateAll(List<String> expressions, double[] results) 
+	{
+		if (results.length < expressions.size()) 
+		{
+			throw new IllegalArgumentException("Result array of length " + results.length + " cannot hold " + expressions.size() + " results");
+		}
+		for (int i = 0; i < expressions.size(); i++) 
+		{
+			results[i] = evaluate(expressions.get(i));
+		}
+	}
 }
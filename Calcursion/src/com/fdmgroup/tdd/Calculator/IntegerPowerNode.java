@@ -0,0 +1,46 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The IntegerPowerNode class represents a base raised to a literal integer exponent such as "3" or "-2".
+ */
+final class IntegerPowerNode extends ExpressionNode {
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    private final ExpressionNode base;
+    private final int exponent;
+
+    /**
+     * Creates a node raising a base to an integer exponent.
+     *
+     * @param base     The base operand.
+     * @param exponent The exponent.
+     */
+    IntegerPowerNode(ExpressionNode base, int exponent) 
+    {
+        this.base = base;
+        this.exponent = exponent;
+    }
+
+    
+    
+    ExpressionNode getBase() 
+    {
+        return base;
+    }
+
+    
+    
+    int getExponent() 
+    {
+        return exponent;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        return POWER_CALCULATOR.power(base.evaluate(variables), exponent);
+    }
+}
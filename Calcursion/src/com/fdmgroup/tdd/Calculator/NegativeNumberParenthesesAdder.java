@@ -11,7 +11,17 @@ public class NegativeNumberParenthesesAdder {
 	public String addParentheses(String expression) 
 	{
 		// Add parentheses to negative numbers in the expression
-        return addParenthesesRecursive(expression, 0, new StringBuilder(), 0);
+		if (!CalculatorMetrics.isRecording()) 
+		{
+			return addParenthesesRecursive(expression, 0, new StringBuilder(), 0);
+		}
+		
+		CalculatorMetrics metrics = CalculatorMetrics.get();
+		long startNanos = System.nanoTime();
+		long startBytes = metrics.allocatedBytes();
+		String parenthesized = addParenthesesRecursive(expression, 0, new StringBuilder(), 0);
+		metrics.record(CalculatorMetrics.Stage.PARENTHESIZE, startNanos, startBytes);
+		return parenthesized;
     }
 
 	
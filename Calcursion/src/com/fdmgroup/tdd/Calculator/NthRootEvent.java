@@ -0,0 +1,30 @@
+package com.fdmgroup.tdd.Calculator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The NthRootEvent class is a Java Flight Recorder event for one nth root solved by NthRootSolver.
+ */
+@Name("com.fdmgroup.tdd.Calculator.NthRoot")
+@Label("Nth Root")
+@Description("An nth root solved by Newton iterations")
+@Category("Calcursion")
+@Enabled(false)
+@StackTrace(false)
+final class NthRootEvent extends Event {
+
+    @Label("Degree")
+    int degree;
+
+    @Label("Iteration Count")
+    int iterations;
+
+    @Label("Reached Iteration Cap")
+    boolean capped;
+}
@@ -0,0 +1,249 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The NthRootSolver class finds nth roots with the Newton-Raphson method and records how quickly it converges.
+ * The first guess is exp(log(x) / n) nudged upwards, which is within a tiny fraction of the root for any degree,
+ * so no power of a guess overflows and the iteration decreases steadily towards the root. It stops when two guesses
+ * agree within the relative tolerance or when the guesses stop decreasing (they are within rounding error of the root).
+ * A root that has not converged at the iteration cap, or whose Newton step overflows, is reported as NaN.
+ */
+public class NthRootSolver {
+
+    /** The default relative tolerance, a few units in the last place of a double. */
+    public static final double DEFAULT_RELATIVE_TOLERANCE = 1e-15;
+
+    /** The default iteration cap; starting this close to the root, Newton needs far fewer. */
+    public static final int DEFAULT_MAXIMUM_ITERATIONS = 100;
+
+    private static final NthRootSolver SHARED = new NthRootSolver(DEFAULT_RELATIVE_TOLERANCE, DEFAULT_MAXIMUM_ITERATIONS);
+
+    private final double relativeTolerance;
+    private final int maximumIterations;
+
+    private final LongAdder rootCount = new LongAdder();
+    private final LongAdder iterationCount = new LongAdder();
+    private final LongAdder iterationCapCount = new LongAdder();
+    private final AtomicLong mostIterations = new AtomicLong();
+
+    /**
+     * Creates a solver.
+     *
+     * @param relativeTolerance The relative difference between two guesses at which the iteration stops.
+     * @param maximumIterations The maximum number of Newton steps for one root.
+     * @throws IllegalArgumentException If the tolerance is negative or the iteration cap is not positive.
+     */
+    public NthRootSolver(double relativeTolerance, int maximumIterations) 
+    {
+        if (!(relativeTolerance >= 0) || maximumIterations <= 0) 
+        {
+            throw new IllegalArgumentException("Invalid tolerance " + relativeTolerance + " or iteration cap " + maximumIterations);
+        }
+        this.relativeTolerance = relativeTolerance;
+        this.maximumIterations = maximumIterations;
+    }
+
+    
+    
+    /**
+     * Returns the solver used by PowerCalculator instances created without one.
+     *
+     * @return The shared solver.
+     */
+    public static NthRootSolver shared() 
+    {
+        return SHARED;
+    }
+
+    
+    
+    /**
+     * Calculates the nth root of a number.
+     *
+     * @param powerCalculator The calculator used for the integer powers in each Newton step.
+     * @param x               The number to calculate the root of.
+     * @param n               The degree of the root.
+     * @return The nth root of the number, or NaN if it is not a real number or the iteration did not converge.
+     */
+    double solve(PowerCalculator powerCalculator, double x, int n) 
+    {
+        if (x == 0 || n == 1 || Double.isNaN(x)) 
+        {
+            return x;
+        }
+        if (n <= 0 || (x < 0 && n % 2 == 0)) 
+        {
+            return Double.NaN;
+        }
+        if (Double.isInfinite(x)) 
+        {
+            return x;
+        }
+
+        // Work on the magnitude; an odd root keeps the sign of the number
+        double magnitude = Math.abs(x);
+        // The logarithm is accurate to far better than one part in 10^12, so the nudge keeps the guess above the root
+        double guess = Math.exp(Math.log(magnitude) / n) * (1 + 1e-12);
+        NthRootEvent event = new NthRootEvent();
+        event.begin();
+
+        // Newton steps: nextGuess = ((n - 1) * guess + x / guess^(n - 1)) / n
+        // A loop rather than recursion keeps the event local, so the JIT can remove it while it is disabled
+        int iteration = 1;
+        boolean capped = false;
+        boolean failed = false;
+        while (true) 
+        {
+            double power = powerCalculator.power(guess, n - 1);
+            if (power == 0 || Double.isInfinite(power)) 
+            {
+                // The step would only scale the guess by (n - 1) / n and drift away from the root
+                failed = true;
+                break;
+            }
+            double nextGuess = ((n - 1) * guess + magnitude / power) / n;
+
+            // Stop once the guesses stop decreasing, agree, or the cap is reached
+            if (nextGuess >= guess) 
+            {
+                break;
+            }
+            boolean converged = guess - nextGuess <= relativeTolerance * nextGuess;
+            guess = nextGuess;
+            if (converged) 
+            {
+                break;
+            }
+            if (iteration >= maximumIterations) 
+            {
+                capped = true;
+                failed = true;
+                break;
+            }
+            iteration++;
+        }
+        record(iteration, capped);
+        if (event.shouldCommit()) 
+        {
+            event.degree = n;
+            event.iterations = iteration;
+            event.capped = capped;
+            event.commit();
+        }
+        if (failed) 
+        {
+            return Double.NaN;
+        }
+        return x < 0 ? -guess : guess;
+    }
+
+    
+    
+    /**
+     * Adds a solved root to the statistics and the metrics.
+     */
+    private void record(int iterations, boolean capped) 
+    {
+        rootCount.increment();
+        iterationCount.add(iterations);
+        if (capped) 
+        {
+            iterationCapCount.increment();
+        }
+        mostIterations.accumulateAndGet(iterations, Math::max);
+        if (CalculatorMetrics.isRecording()) 
+        {
+            CalculatorMetrics.get().recordNthRoot(iterations);
+        }
+    }
+
+    
+    
+    public double getRelativeTolerance() 
+    {
+        return relativeTolerance;
+    }
+
+    
+    
+    public int getMaximumIterations() 
+    {
+        return maximumIterations;
+    }
+
+    
+    
+    /**
+     * Returns the number of roots solved by Newton iterations (trivial cases such as x = 0 are not counted).
+     *
+     * @return The number of roots.
+     */
+    public long getRootCount() 
+    {
+        return rootCount.sum();
+    }
+
+    
+    
+    /**
+     * Returns the total number of Newton steps taken.
+     *
+     * @return The number of iterations.
+     */
+    public long getIterationCount() 
+    {
+        return iterationCount.sum();
+    }
+
+    
+    
+    /**
+     * Returns the average number of Newton steps per root.
+     *
+     * @return The average number of iterations, or 0 if no root was solved.
+     */
+    public double getAverageIterations() 
+    {
+        long roots = rootCount.sum();
+        return roots == 0 ? 0 : (double) iterationCount.sum() / roots;
+    }
+
+    
+    
+    /**
+     * Returns the largest number of Newton steps taken for one root.
+     *
+     * @return The most iterations.
+     */
+    public long getMostIterations() 
+    {
+        return mostIterations.get();
+    }
+
+    
+    
+    /**
+     * Returns the number of roots that stopped at the iteration cap before converging.
+     *
+     * @return The number of capped roots.
+     */
+    public long getIterationCapCount() 
+    {
+        return iterationCapCount.sum();
+    }
+
+    
+    
+    /**
+     * Clears the convergence statistics.
+     */
+    public void resetStatistics() 
+    {
+        rootCount.reset();
+        iterationCount.reset();
+        iterationCapCount.reset();
+        mostIterations.set(0);
+    }
+}
@@ -0,0 +1,39 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The NumberNode class represents a literal number in a compiled expression.
+ */
+final class NumberNode extends ExpressionNode {
+
+    private final double value;
+
+    /**
+     * Creates a node holding a literal number.
+     *
+     * @param value The value of the literal.
+     */
+    NumberNode(double value) 
+    {
+        this.value = value;
+    }
+
+    
+    
+    /**
+     * Returns the value of the literal.
+     *
+     * @return The value of the literal.
+     */
+    double getValue() 
+    {
+        return value;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        return value;
+    }
+}
@@ -0,0 +1,282 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.math.BigInteger;
+
+/**
+ * The NumberParser class converts decimal literals to doubles straight from the characters of the source,
+ * without creating a substring, and always to the same double as Double.parseDouble.
+ * Up to 19 significant digits are read into a long together with a decimal exponent. When both are small
+ * the double is computed with one exact multiplication or division (Clinger's fast path); otherwise the
+ * Eisel-Lemire algorithm rounds the product of the digits and a 128-bit approximation of the power of ten.
+ * The rare inputs that cannot be rounded with certainty, and any text that is not a plain decimal literal,
+ * are passed to Double.parseDouble, so results and errors always match it.
+ */
+final class NumberParser {
+
+    // The range of decimal exponents covered by the table; anything outside is zero or infinite
+    private static final int SMALLEST_POWER = -342;
+    private static final int LARGEST_POWER = 308;
+
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // The 128 most significant bits of each power of ten, rounded down, as high and low halves
+    private static final long[] POWERS_OF_TEN_HIGH = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final long[] POWERS_OF_TEN_LOW = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+
+    static 
+    {
+        // 10^q and 5^q have the same significant bits, so the table is built from powers of five
+        BigInteger fivePower = BigInteger.ONE;
+        for (int q = 0; q <= LARGEST_POWER; q++) 
+        {
+            storePower(q, normalize(fivePower));
+            fivePower = fivePower.multiply(BigInteger.valueOf(5));
+        }
+        fivePower = BigInteger.valueOf(5);
+        for (int q = -1; q >= SMALLEST_POWER; q--) 
+        {
+            // 2^b / 5^-q with b chosen so that the quotient has exactly 128 bits
+            storePower(q, BigInteger.ONE.shiftLeft(127 + fivePower.bitLength()).divide(fivePower));
+            fivePower = fivePower.multiply(BigInteger.valueOf(5));
+        }
+    }
+
+    private NumberParser() 
+    {
+    }
+
+    
+    
+    private static BigInteger normalize(BigInteger value) 
+    {
+        int bits = value.bitLength();
+        return bits > 128 ? value.shiftRight(bits - 128) : value.shiftLeft(128 - bits);
+    }
+
+    
+    
+    private static void storePower(int q, BigInteger value) 
+    {
+        POWERS_OF_TEN_HIGH[q - SMALLEST_POWER] = value.shiftRight(64).longValue();
+        POWERS_OF_TEN_LOW[q - SMALLEST_POWER] = value.longValue();
+    }
+
+    
+    
+    /**
+     * Parses the literal between two indexes of the source.
+     * A plain decimal literal is an optional sign, digits with at most one decimal point and at least one digit,
+     * and an optional exponent of e or E, an optional sign and digits.
+     *
+     * @param source The characters holding the literal.
+     * @param start  The index of the first character of the literal.
+     * @param end    The index just after the last character of the literal.
+     * @return The value of the literal, identical to Double.parseDouble of the same text.
+     * @throws NumberFormatException If the text is not a number Double.parseDouble accepts.
+     */
+    static double parse(CharSequence source, int start, int end) 
+    {
+        int index = start;
+        boolean negative = false;
+        if (index < end && (source.charAt(index) == '-' || source.charAt(index) == '+')) 
+        {
+            negative = source.charAt(index) == '-';
+            index++;
+        }
+
+        // Read up to 19 significant digits, counting how far the decimal point moves the rest
+        long digits = 0;
+        int significantDigits = 0;
+        int digitCount = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        boolean seenPoint = false;
+        for (; index < end; index++) 
+        {
+            char c = source.charAt(index);
+            if (c == '.' && !seenPoint) 
+            {
+                seenPoint = true;
+                continue;
+            }
+            if (c < '0' || c > '9') 
+            {
+                break;
+            }
+            digitCount++;
+            if (significantDigits < 19) 
+            {
+                if (digits != 0 || c != '0') 
+                {
+                    digits = digits * 10 + (c - '0');
+                    significantDigits++;
+                }
+                if (seenPoint) 
+                {
+                    exponent--;
+                }
+            }
+            else 
+            {
+                truncated |= c != '0';
+                if (!seenPoint) 
+                {
+                    exponent++;
+                }
+            }
+        }
+        if (digitCount == 0) 
+        {
+            return fallback(source, start, end);
+        }
+
+        if (index < end && (source.charAt(index) == 'e' || source.charAt(index) == 'E')) 
+        {
+            index++;
+            boolean negativeExponent = false;
+            if (index < end && (source.charAt(index) == '-' || source.charAt(index) == '+')) 
+            {
+                negativeExponent = source.charAt(index) == '-';
+                index++;
+            }
+            if (index == end) 
+            {
+                return fallback(source, start, end);
+            }
+            int explicitExponent = 0;
+            for (; index < end; index++) 
+            {
+                char c = source.charAt(index);
+                if (c < '0' || c > '9') 
+                {
+                    return fallback(source, start, end);
+                }
+                // Saturate well beyond the range where every value is zero or infinite
+                explicitExponent = Math.min(explicitExponent * 10 + (c - '0'), 100000);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (index != end) 
+        {
+            return fallback(source, start, end);
+        }
+
+        double value = toDouble(digits, exponent, truncated);
+        if (Double.isNaN(value)) 
+        {
+            return fallback(source, start, end);
+        }
+        return negative ? -value : value;
+    }
+
+    
+    
+    /**
+     * Rounds digits * 10^exponent to the nearest double, with the digits read as an unsigned long.
+     *
+     * @param truncated True if nonzero digits were dropped after the first 19.
+     * @return The double, or NaN if it cannot be determined with certainty.
+     */
+    private static double toDouble(long digits, int exponent, boolean truncated) 
+    {
+        if (digits == 0) 
+        {
+            return 0.0;
+        }
+        if (!truncated && digits >= 0 && digits <= 1L << 53 && exponent >= -22 && exponent <= 22) 
+        {
+            // Both operands are exact doubles, so one correctly rounded operation gives the answer
+            return exponent >= 0 ? digits * EXACT_POWERS_OF_TEN[exponent] : digits / EXACT_POWERS_OF_TEN[-exponent];
+        }
+        if (exponent < SMALLEST_POWER || exponent > LARGEST_POWER) 
+        {
+            return Double.NaN;
+        }
+
+        double value = eiselLemire(digits, exponent);
+        if (truncated && value != eiselLemire(digits + 1, exponent)) 
+        {
+            // The dropped digits lie between the two candidates, which round differently
+            return Double.NaN;
+        }
+        return value;
+    }
+
+    
+    
+    /**
+     * Rounds a nonzero unsigned 64-bit significand times 10^exponent to the nearest double.
+     *
+     * @return The double, or NaN if the approximation is too close to a halfway point or the result is not normal.
+     */
+    private static double eiselLemire(long digits, int exponent) 
+    {
+        int leadingZeros = Long.numberOfLeadingZeros(digits);
+        long significand = digits << leadingZeros;
+        // floor(exponent * log2(10)) + 64 + bias, minus the normalizing shift
+        long binaryExponent = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+        int entry = exponent - SMALLEST_POWER;
+        long high = unsignedMultiplyHigh(significand, POWERS_OF_TEN_HIGH[entry]);
+        long low = significand * POWERS_OF_TEN_HIGH[entry];
+
+        // When the bits below the 54 kept are all ones, the truncated low half of the power may carry into them
+        if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + significand, low) < 0) 
+        {
+            long secondHigh = unsignedMultiplyHigh(significand, POWERS_OF_TEN_LOW[entry]);
+            long secondLow = significand * POWERS_OF_TEN_LOW[entry];
+            long mergedHigh = high;
+            long mergedLow = low + secondHigh;
+            if (Long.compareUnsigned(mergedLow, low) < 0) 
+            {
+                mergedHigh++;
+            }
+            if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow == -1 && Long.compareUnsigned(secondLow + significand, secondLow) < 0) 
+            {
+                return Double.NaN;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        long mostSignificantBit = high >>> 63;
+        long mantissa = high >>> (mostSignificantBit + 9);
+        binaryExponent -= 1 ^ mostSignificantBit;
+
+        // An exact product halfway between two doubles needs round-half-even, which the approximation cannot see
+        if (low == 0 && (high & 0x1FF) == 0 && (mantissa & 3) == 1) 
+        {
+            return Double.NaN;
+        }
+
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >>> 53 > 0) 
+        {
+            mantissa >>>= 1;
+            binaryExponent++;
+        }
+        if (binaryExponent <= 0 || binaryExponent >= 0x7FF) 
+        {
+            return Double.NaN;
+        }
+        return Double.longBitsToDouble(binaryExponent << 52 | mantissa & 0x000FFFFFFFFFFFFFL);
+    }
+
+    
+    
+    private static long unsignedMultiplyHigh(long x, long y) 
+    {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    
+    
+    private static double fallback(CharSequence source, int start, int end) 
+    {
+        return Double.parseDouble(source.subSequence(start, end).toString());
+    }
+}
@@ -18,6 +18,10 @@ public class OperatorFinder {
         }
 
         char currentChar = expression.charAt(index);
+        if (CalculatorMetrics.isRecording()) 
+        {
+            CalculatorMetrics.get().recordOperatorScan();
+        }
 
         // Update parentheses count for proper handling of parentheses
         if (currentChar == ')') 
@@ -28,7 +32,7 @@ public class OperatorFinder {
         {
             parenthesesCount--;
         } 
-        else if (parenthesesCount == 0 && containsOperator(currentChar, operators)) 
+        else if (parenthesesCount == 0 && containsOperator(currentChar, operators, 0)) 
         {
             return index;
         }
@@ -39,28 +43,27 @@ public class OperatorFinder {
     
     
     /**
-     * Checks if a character is one of the specified operators.
+     * Checks if a character is one of the specified operators, from the given position in the array on.
      *
      * @param ch        The character to check.
      * @param operators The array of operators to compare against.
+     * @param position  The index of the first operator to compare.
      * @return True if the character is one of the operators, false otherwise.
      */
-    private boolean containsOperator(char ch, char... operators) 
+    private boolean containsOperator(char ch, char[] operators, int position) 
     {
     	// Check if a character is one of the specified operators
-        if (ch == operators[0]) 
+        if (position == operators.length) 
         {
-            return true;
+            return false;
         }
 
-        if (operators.length == 1) 
+        if (ch == operators[position]) 
         {
-            return false;
+            return true;
         }
 
-        char[] remainingOperators = new char[operators.length - 1];
-        System.arraycopy(operators, 1, remainingOperators, 0, operators.length - 1);
-
-        return containsOperator(ch, remainingOperators);
+        // Move on to the next operator instead of copying the rest of the array
+        return containsOperator(ch, operators, position + 1);
     }
 }
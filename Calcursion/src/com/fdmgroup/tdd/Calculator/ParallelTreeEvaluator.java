@@ -0,0 +1,411 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The ParallelTreeEvaluator class evaluates a very large expression tree on a ForkJoinPool.
+ * The tree is planned once: every left spine of binary operations larger than SEQUENTIAL_THRESHOLD nodes,
+ * such as the long chains of + and * the parser builds, becomes a chain of operands whose values are computed
+ * in parallel, split by subtree size, and then folded from left to right exactly as the tree would be.
+ * Subtrees of at most SEQUENTIAL_THRESHOLD nodes are evaluated on the thread that reaches them,
+ * so results are bit for bit the same as a sequential evaluation.
+ * Planning walks the tree with an explicit stack, and deep subtrees that offer no parallelism are run as
+ * postfix programs, so neither planning nor evaluation overflows the call stack.
+ */
+final class ParallelTreeEvaluator {
+
+    /** Subtrees and operand ranges with at most this many nodes are evaluated on the current thread. */
+    static final int SEQUENTIAL_THRESHOLD = 2048;
+
+    // Chains nested deeper than this are evaluated sequentially, which bounds the depth of the task recursion
+    private static final int MAXIMUM_NESTING = 64;
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    private final Part root;
+
+    private ParallelTreeEvaluator(Part root) 
+    {
+        this.root = root;
+    }
+
+    
+    
+    /**
+     * Plans the parallel evaluation of a tree.
+     * The tree is visited in post-order, and each node's plan is built from the plans of its children.
+     *
+     * @param root The root node of the expression tree.
+     * @return The evaluator.
+     */
+    static ParallelTreeEvaluator plan(ExpressionNode root) 
+    {
+        // Visiting node, right, left from a stack yields the reverse of the post-order
+        List<ExpressionNode> reversed = new ArrayList<ExpressionNode>();
+        List<ExpressionNode> pending = new ArrayList<ExpressionNode>();
+        pending.add(root);
+        while (!pending.isEmpty()) 
+        {
+            ExpressionNode node = pending.remove(pending.size() - 1);
+            reversed.add(node);
+            if (node instanceof BinaryOperationNode) 
+            {
+                pending.add(((BinaryOperationNode) node).getLeft());
+                pending.add(((BinaryOperationNode) node).getRight());
+            }
+            else if (baseOf(node) != null) 
+            {
+                pending.add(baseOf(node));
+            }
+        }
+
+        List<Part> parts = new ArrayList<Part>();
+        for (int i = reversed.size() - 1; i >= 0; i--) 
+        {
+            ExpressionNode node = reversed.get(i);
+            if (node instanceof BinaryOperationNode) 
+            {
+                Part right = parts.remove(parts.size() - 1);
+                Part left = parts.remove(parts.size() - 1);
+                parts.add(planBinary((BinaryOperationNode) node, left, right));
+            }
+            else if (baseOf(node) != null) 
+            {
+                Part base = parts.remove(parts.size() - 1);
+                parts.add(base instanceof Leaf ? new Leaf(node, base.size + 1) : new Power(node, operand(base)));
+            }
+            else 
+            {
+                // A compensated sum is a single loop; counting its terms sends a large one to a postfix program
+                parts.add(new Leaf(node, node instanceof SumNode ? ExpressionNode.countNodes(node) : 1));
+            }
+        }
+        return new ParallelTreeEvaluator(operand(parts.get(0)));
+    }
+
+    
+    
+    /**
+     * Extends the chain of the left operand, starts a chain once the node is large enough, or keeps it a leaf.
+     */
+    private static Part planBinary(BinaryOperationNode node, Part left, Part right) 
+    {
+        int size = left.size + right.size + 1;
+        if (left instanceof Chain) 
+        {
+            ((Chain) left).append(node, operand(right));
+            return left;
+        }
+        if (size > SEQUENTIAL_THRESHOLD) 
+        {
+            Chain chain = new Chain(node, operand(left));
+            chain.append(node, operand(right));
+            return chain;
+        }
+        return new Leaf(node, size);
+    }
+
+    
+    
+    /**
+     * Prepares a finished part for use as an operand, falling back to a leaf if it is nested too deeply.
+     */
+    private static Part operand(Part part) 
+    {
+        if (part.nesting >= MAXIMUM_NESTING) 
+        {
+            return new Leaf(part.node, part.size);
+        }
+        if (part instanceof Chain) 
+        {
+            ((Chain) part).seal();
+        }
+        return part;
+    }
+
+    
+    
+    private static ExpressionNode baseOf(ExpressionNode node) 
+    {
+        if (node instanceof FractionalPowerNode) 
+        {
+            return ((FractionalPowerNode) node).getBase();
+        }
+        if (node instanceof DecimalPowerNode) 
+        {
+            return ((DecimalPowerNode) node).getBase();
+        }
+        if (node instanceof IntegerPowerNode) 
+        {
+            return ((IntegerPowerNode) node).getBase();
+        }
+        return null;
+    }
+
+    
+    
+    /**
+     * Evaluates the tree, forking the work of large chains on the pool.
+     *
+     * @param pool      The pool running the tasks.
+     * @param variables The variable values, indexed by the slots assigned at compile time.
+     * @return The result of the expression evaluation.
+     */
+    double evaluate(ForkJoinPool pool, double[] variables) 
+    {
+        if (root instanceof Leaf) 
+        {
+            return root.evaluate(variables);
+        }
+        return pool.invoke(new RootTask(root, variables));
+    }
+
+    
+    
+    /**
+     * Checks if the plan has any chain to evaluate in parallel.
+     *
+     * @return False if the whole tree is evaluated on the calling thread.
+     */
+    boolean isParallel() 
+    {
+        return !(root instanceof Leaf);
+    }
+
+    
+    
+    /**
+     * The plan of one subtree.
+     */
+    private abstract static class Part {
+
+        ExpressionNode node;
+        int size;
+        int nesting;
+
+        abstract double evaluate(double[] variables);
+    }
+
+    
+    
+    /**
+     * A subtree evaluated on the current thread: by walking the tree while it is small,
+     * or with a postfix program, compiled on first use, once it is too deep to walk recursively.
+     */
+    private static final class Leaf extends Part {
+
+        private volatile PostfixProgram program;
+
+        Leaf(ExpressionNode node, int size) 
+        {
+            this.node = node;
+            this.size = size;
+        }
+
+        @Override
+        double evaluate(double[] variables) 
+        {
+            if (size <= SEQUENTIAL_THRESHOLD) 
+            {
+                return node.evaluate(variables);
+            }
+            PostfixProgram compiled = program;
+            if (compiled == null) 
+            {
+                compiled = PostfixProgram.compile(node);
+                program = compiled;
+            }
+            return compiled.evaluate(variables);
+        }
+    }
+
+    
+    
+    /**
+     * A power node with a fixed exponent whose base is evaluated in parallel.
+     */
+    private static final class Power extends Part {
+
+        private final Part base;
+
+        Power(ExpressionNode node, Part base) 
+        {
+            this.node = node;
+            this.base = base;
+            this.size = base.size + 1;
+            this.nesting = base.nesting + 1;
+        }
+
+        @Override
+        double evaluate(double[] variables) 
+        {
+            double value = base.evaluate(variables);
+            if (node instanceof FractionalPowerNode) 
+            {
+                FractionalPowerNode power = (FractionalPowerNode) node;
+                return POWER_CALCULATOR.power(value, power.getNumerator(), power.getDenominator());
+            }
+            if (node instanceof DecimalPowerNode) 
+            {
+                DecimalPowerNode power = (DecimalPowerNode) node;
+                return POWER_CALCULATOR.powerHelper(value, power.getNumerator(), power.getDenominator());
+            }
+            return POWER_CALCULATOR.power(value, ((IntegerPowerNode) node).getExponent());
+        }
+    }
+
+    
+    
+    /**
+     * A left spine of binary operations, ((a op b) op c) op d, held as its operands and operators.
+     */
+    private static final class Chain extends Part {
+
+        private List<Part> operandList = new ArrayList<Part>();
+        private StringBuilder operatorList = new StringBuilder();
+        private Part[] operands;
+        private char[] operators;
+        private long[] offsets;
+
+        Chain(ExpressionNode node, Part first) 
+        {
+            this.node = node;
+            this.size = first.size;
+            this.nesting = first.nesting + 1;
+            operandList.add(first);
+        }
+
+        
+        
+        void append(BinaryOperationNode top, Part operand) 
+        {
+            node = top;
+            size += operand.size + 1;
+            nesting = Math.max(nesting, operand.nesting + 1);
+            operandList.add(operand);
+            operatorList.append(top.getOperator());
+        }
+
+        
+        
+        /**
+         * Freezes the chain into arrays, with the running node count in front of each operand for splitting.
+         */
+        void seal() 
+        {
+            if (operands != null) 
+            {
+                return;
+            }
+            operands = operandList.toArray(new Part[0]);
+            operators = operatorList.toString().toCharArray();
+            offsets = new long[operands.length + 1];
+            for (int i = 0; i < operands.length; i++) 
+            {
+                offsets[i + 1] = offsets[i] + operands[i].size;
+            }
+            operandList = null;
+            operatorList = null;
+        }
+
+        
+        
+        @Override
+        double evaluate(double[] variables) 
+        {
+            double[] values = new double[operands.length];
+            new OperandTask(this, variables, values, 0, operands.length).invoke();
+
+            double result = values[0];
+            for (int i = 1; i < values.length; i++) 
+            {
+                result = BinaryOperationNode.apply(operators[i - 1], result, values[i]);
+            }
+            return result;
+        }
+
+        
+        
+        /**
+         * Returns the index that splits the operands from start to end into two halves of about the same node count.
+         */
+        int split(int start, int end) 
+        {
+            long middle = (offsets[start] + offsets[end]) >>> 1;
+            int index = Arrays.binarySearch(offsets, start, end, middle);
+            index = index >= 0 ? index : -index - 1;
+            return Math.max(start + 1, Math.min(end - 1, index));
+        }
+    }
+
+    
+    
+    /**
+     * Evaluates the operands of a chain from start to end, splitting the range while it holds too many nodes.
+     */
+    private static final class OperandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chain chain;
+        private final double[] variables;
+        private final double[] values;
+        private final int start;
+        private final int end;
+
+        OperandTask(Chain chain, double[] variables, double[] values, int start, int end) 
+        {
+            this.chain = chain;
+            this.variables = variables;
+            this.values = values;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() 
+        {
+            if (end - start > 1 && chain.offsets[end] - chain.offsets[start] > SEQUENTIAL_THRESHOLD) 
+            {
+                int middle = chain.split(start, end);
+                invokeAll(new OperandTask(chain, variables, values, start, middle),
+                        new OperandTask(chain, variables, values, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) 
+            {
+                values[i] = chain.operands[i].evaluate(variables);
+            }
+        }
+    }
+
+    
+    
+    /**
+     * Evaluates the root of the plan inside the pool, so the chain tasks fork onto it.
+     */
+    private static final class RootTask extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Part root;
+        private final double[] variables;
+
+        RootTask(Part root, double[] variables) 
+        {
+            this.root = root;
+            this.variables = variables;
+        }
+
+        @Override
+        protected Double compute() 
+        {
+            return root.evaluate(variables);
+        }
+    }
+}
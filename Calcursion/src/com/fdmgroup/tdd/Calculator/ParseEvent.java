@@ -0,0 +1,28 @@
+package com.fdmgroup.tdd.Calculator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The ParseEvent class is a Java Flight Recorder event for one expression parsed into a tree.
+ * Like the other calculator events it is disabled by default; enable it in a recording by name.
+ */
+@Name("com.fdmgroup.tdd.Calculator.Parse")
+@Label("Expression Parse")
+@Description("An expression parsed into a tree")
+@Category("Calcursion")
+@Enabled(false)
+@StackTrace(false)
+final class ParseEvent extends Event {
+
+    @Label("Expression Length")
+    int expressionLength;
+
+    @Label("Node Count")
+    int nodeCount;
+}
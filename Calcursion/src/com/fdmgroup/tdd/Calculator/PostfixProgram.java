@@ -0,0 +1,563 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+
+/**
+ * The PostfixProgram class is a flattened, postfix form of an expression tree.
+ * It is evaluated by a loop over its instructions using an explicit operand stack,
+ * so neither building nor running it recurses, however deep the tree is.
+ */
+final class PostfixProgram {
+
+    private static final PowerCalculator POWER_CALCULATOR = new PowerCalculator();
+
+    /** The number of rows evaluated together by evaluateColumns. */
+    static final int BLOCK_SIZE = 1024;
+
+    // Instruction codes
+    private static final byte CONSTANT = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte ADD = 2;
+    private static final byte SUBTRACT = 3;
+    private static final byte MULTIPLY = 4;
+    private static final byte DIVIDE = 5;
+    private static final byte POWER = 6;
+    private static final byte FRACTIONAL_POWER = 7;
+    private static final byte INTEGER_POWER = 8;
+    private static final byte DECIMAL_POWER = 9;
+    private static final byte SUM_START = 10;
+    private static final byte SUM_ADD = 11;
+    private static final byte SUM_SUBTRACT = 12;
+    private static final byte SUM_END = 13;
+
+    private final byte[] instructions;
+    private final int[] arguments;
+    private final double[] constants;
+    private final int[] numerators;
+    private final int[] denominators;
+    private final int maximumStackDepth;
+
+    private PostfixProgram(byte[] instructions, int[] arguments, double[] constants, 
+            int[] numerators, int[] denominators, int maximumStackDepth) 
+    {
+        this.instructions = instructions;
+        this.arguments = arguments;
+        this.constants = constants;
+        this.numerators = numerators;
+        this.denominators = denominators;
+        this.maximumStackDepth = maximumStackDepth;
+    }
+
+    
+    
+    /**
+     * Flattens an expression tree into a postfix program.
+     * The tree is walked in post-order with an explicit stack of frames, each holding a node and the index of
+     * its next child, and every node emits its instruction once its children have emitted theirs.
+     * A SumNode emits each term followed by the step that adds it into a running sum and compensation,
+     * so a sum of any number of terms needs only two more stack slots than its deepest term.
+     *
+     * @param root The root node of the expression tree.
+     * @return The postfix program.
+     */
+    static PostfixProgram compile(ExpressionNode root) 
+    {
+        Builder builder = new Builder();
+        ExpressionNode[] nodes = new ExpressionNode[16];
+        int[] nextChildren = new int[16];
+        int depth = 0;
+        nodes[depth++] = root;
+
+        while (depth > 0) 
+        {
+            ExpressionNode node = nodes[depth - 1];
+            int child = nextChildren[depth - 1]++;
+            if (node instanceof SumNode && child > 0) 
+            {
+                builder.addSumStep((SumNode) node, child - 1);
+            }
+
+            ExpressionNode next = childOf(node, child);
+            if (next == null) 
+            {
+                builder.addNode(node);
+                nodes[--depth] = null;
+                continue;
+            }
+            if (depth == nodes.length) 
+            {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+            }
+            nodes[depth] = next;
+            nextChildren[depth++] = 0;
+        }
+        return builder.build();
+    }
+
+    
+    
+    /**
+     * Returns a child of a node in evaluation order.
+     *
+     * @param node  The node.
+     * @param index The index of the child.
+     * @return The child, or null if the node has no more children.
+     */
+    private static ExpressionNode childOf(ExpressionNode node, int index) 
+    {
+        if (node instanceof BinaryOperationNode) 
+        {
+            return index == 0 ? ((BinaryOperationNode) node).getLeft() : index == 1 ? ((BinaryOperationNode) node).getRight() : null;
+        }
+        if (node instanceof SumNode) 
+        {
+            ExpressionNode[] terms = ((SumNode) node).getTerms();
+            return index < terms.length ? terms[index] : null;
+        }
+        if (index > 0) 
+        {
+            return null;
+        }
+        if (node instanceof FractionalPowerNode) 
+        {
+            return ((FractionalPowerNode) node).getBase();
+        }
+        if (node instanceof DecimalPowerNode) 
+        {
+            return ((DecimalPowerNode) node).getBase();
+        }
+        if (node instanceof IntegerPowerNode) 
+        {
+            return ((IntegerPowerNode) node).getBase();
+        }
+        return null;
+    }
+
+    
+    
+    /**
+     * Evaluates the program with a newly allocated operand stack.
+     *
+     * @param variables The variable values, indexed by the slots assigned at compile time.
+     * @return The result of the expression evaluation.
+     */
+    double evaluate(double[] variables) 
+    {
+        return evaluate(variables, new double[maximumStackDepth]);
+    }
+
+    
+    
+    /**
+     * Evaluates the program.
+     *
+     * @param variables The variable values, indexed by the slots assigned at compile time.
+     * @param stack     The operand stack, holding at least getMaximumStackDepth() values.
+     * @return The result of the expression evaluation.
+     */
+    double evaluate(double[] variables, double[] stack) 
+    {
+        int top = -1;
+        for (int i = 0; i < instructions.length; i++) 
+        {
+            switch (instructions[i]) 
+            {
+                case CONSTANT:
+                    stack[++top] = constants[arguments[i]];
+                    break;
+                case VARIABLE:
+                    stack[++top] = variables[arguments[i]];
+                    break;
+                case ADD:
+                    top--;
+                    stack[top] = stack[top] + stack[top + 1];
+                    break;
+                case SUBTRACT:
+                    top--;
+                    stack[top] = stack[top] - stack[top + 1];
+                    break;
+                case MULTIPLY:
+                    top--;
+                    stack[top] = stack[top] * stack[top + 1];
+                    break;
+                case DIVIDE:
+                    top--;
+                    stack[top] = stack[top] / stack[top + 1];
+                    break;
+                case POWER:
+                    top--;
+                    stack[top] = POWER_CALCULATOR.power(stack[top], stack[top + 1]);
+                    break;
+                case INTEGER_POWER:
+                    stack[top] = POWER_CALCULATOR.power(stack[top], arguments[i]);
+                    break;
+                case DECIMAL_POWER:
+                    stack[top] = POWER_CALCULATOR.powerHelper(stack[top], numerators[arguments[i]], denominators[arguments[i]]);
+                    break;
+                case SUM_START:
+                    // The running sum sits below its compensation
+                    stack[top] = arguments[i] == 1 ? -stack[top] : stack[top];
+                    stack[++top] = 0;
+                    break;
+                case SUM_ADD:
+                case SUM_SUBTRACT:
+                    double term = instructions[i] == SUM_ADD ? stack[top--] : -stack[top--];
+                    double sum = stack[top - 1];
+                    stack[top - 1] = sum + term;
+                    stack[top] += SumNode.error(sum, term, stack[top - 1]);
+                    break;
+                case SUM_END:
+                    top--;
+                    stack[top] = SumNode.finish(stack[top], stack[top + 1]);
+                    break;
+                default:
+                    stack[top] = POWER_CALCULATOR.power(stack[top], numerators[arguments[i]], denominators[arguments[i]]);
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    
+    
+    /**
+     * Evaluates the program for every row of a set of columns, one block of rows at a time.
+     * Each instruction runs as a tight loop over the block, which HotSpot unrolls and compiles to SIMD
+     * instructions for the arithmetic operators; the power instructions fall back to one call per row.
+     *
+     * @param columns The variable values, one column per slot; row r of the columns holds the bindings for out[r].
+     * @param out     The array receiving one result per row.
+     * @param stack   The operand stack, holding getMaximumStackDepth() blocks of BLOCK_SIZE values.
+     */
+    void evaluateColumns(double[][] columns, double[] out, double[][] stack) 
+    {
+        for (int start = 0; start < out.length; start += BLOCK_SIZE) 
+        {
+            int length = Math.min(BLOCK_SIZE, out.length - start);
+            int top = -1;
+            for (int i = 0; i < instructions.length; i++) 
+            {
+                switch (instructions[i]) 
+                {
+                    case CONSTANT:
+                        Arrays.fill(stack[++top], 0, length, constants[arguments[i]]);
+                        break;
+                    case VARIABLE:
+                        System.arraycopy(columns[arguments[i]], start, stack[++top], 0, length);
+                        break;
+                    case ADD:
+                        top--;
+                        add(stack[top], stack[top + 1], length);
+                        break;
+                    case SUBTRACT:
+                        top--;
+                        subtract(stack[top], stack[top + 1], length);
+                        break;
+                    case MULTIPLY:
+                        top--;
+                        multiply(stack[top], stack[top + 1], length);
+                        break;
+                    case DIVIDE:
+                        top--;
+                        divide(stack[top], stack[top + 1], length);
+                        break;
+                    case SUM_START:
+                    case SUM_ADD:
+                    case SUM_SUBTRACT:
+                    case SUM_END:
+                        top = sumBlock(i, stack, top, length);
+                        break;
+                    default:
+                        top = powerBlock(i, stack, top, length);
+                        break;
+                }
+            }
+            System.arraycopy(stack[0], 0, out, start, length);
+        }
+    }
+
+    
+    
+    /**
+     * Applies a power instruction to every row of a block; there is no SIMD form of these, so each row is a call.
+     *
+     * @return The new top of the operand stack.
+     */
+    private int powerBlock(int instruction, double[][] stack, int top, int length) 
+    {
+        int argument = arguments[instruction];
+        double[] values = stack[top];
+        switch (instructions[instruction]) 
+        {
+            case POWER:
+                double[] exponents = stack[top--];
+                values = stack[top];
+                for (int row = 0; row < length; row++) 
+                {
+                    values[row] = POWER_CALCULATOR.power(values[row], exponents[row]);
+                }
+                break;
+            case INTEGER_POWER:
+                for (int row = 0; row < length; row++) 
+                {
+                    values[row] = POWER_CALCULATOR.power(values[row], argument);
+                }
+                break;
+            case DECIMAL_POWER:
+                for (int row = 0; row < length; row++) 
+                {
+                    values[row] = POWER_CALCULATOR.powerHelper(values[row], numerators[argument], denominators[argument]);
+                }
+                break;
+            default:
+                for (int row = 0; row < length; row++) 
+                {
+                    values[row] = POWER_CALCULATOR.power(values[row], numerators[argument], denominators[argument]);
+                }
+                break;
+        }
+        return top;
+    }
+
+    
+    
+    /**
+     * Applies a step of a compensated sum to every row of a block.
+     *
+     * @return The new top of the operand stack.
+     */
+    private int sumBlock(int instruction, double[][] stack, int top, int length) 
+    {
+        switch (instructions[instruction]) 
+        {
+            case SUM_START:
+                if (arguments[instruction] == 1) 
+                {
+                    double[] values = stack[top];
+                    for (int row = 0; row < length; row++) 
+                    {
+                        values[row] = -values[row];
+                    }
+                }
+                Arrays.fill(stack[++top], 0, length, 0);
+                return top;
+            case SUM_END:
+                double[] sums = stack[top - 1];
+                double[] errors = stack[top];
+                for (int row = 0; row < length; row++) 
+                {
+                    sums[row] = SumNode.finish(sums[row], errors[row]);
+                }
+                return top - 1;
+            default:
+                double[] terms = stack[top--];
+                double sign = instructions[instruction] == SUM_ADD ? 1 : -1;
+                double[] running = stack[top - 1];
+                double[] compensations = stack[top];
+                for (int row = 0; row < length; row++) 
+                {
+                    double term = sign * terms[row];
+                    double sum = running[row];
+                    running[row] = sum + term;
+                    compensations[row] += SumNode.error(sum, term, running[row]);
+                }
+                return top;
+        }
+    }
+
+    
+    
+    // One loop per operator, small enough for the JIT to vectorize
+    private static void add(double[] left, double[] right, int length) 
+    {
+        for (int row = 0; row < length; row++) 
+        {
+            left[row] += right[row];
+        }
+    }
+
+    
+    
+    private static void subtract(double[] left, double[] right, int length) 
+    {
+        for (int row = 0; row < length; row++) 
+        {
+            left[row] -= right[row];
+        }
+    }
+
+    
+    
+    private static void multiply(double[] left, double[] right, int length) 
+    {
+        for (int row = 0; row < length; row++) 
+        {
+            left[row] *= right[row];
+        }
+    }
+
+    
+    
+    private static void divide(double[] left, double[] right, int length) 
+    {
+        for (int row = 0; row < length; row++) 
+        {
+            left[row] /= right[row];
+        }
+    }
+
+    
+    
+    /**
+     * Returns the number of operand stack slots the program needs.
+     *
+     * @return The maximum stack depth.
+     */
+    int getMaximumStackDepth() 
+    {
+        return maximumStackDepth;
+    }
+
+    
+    
+    private static byte instructionOf(char operator) 
+    {
+        switch (operator) 
+        {
+            case '+':
+                return ADD;
+            case '-':
+                return SUBTRACT;
+            case '*':
+                return MULTIPLY;
+            case '/':
+                return DIVIDE;
+            default:
+                return POWER;
+        }
+    }
+
+    
+    
+    /**
+     * Collects the instructions and their operands as the tree is walked, tracking the depth of the operand stack.
+     */
+    private static final class Builder {
+
+        private byte[] instructions = new byte[16];
+        private int[] arguments = new int[16];
+        private int instructionCount;
+        private double[] constants = new double[8];
+        private int constantCount;
+        private int[] numerators = new int[4];
+        private int[] denominators = new int[4];
+        private int fractionCount;
+        private int stackDepth;
+        private int maximumStackDepth;
+
+        /**
+         * Adds the instruction of a node whose children have already been added.
+         */
+        void addNode(ExpressionNode node) 
+        {
+            if (node instanceof NumberNode) 
+            {
+                if (constantCount == constants.length) 
+                {
+                    constants = Arrays.copyOf(constants, constantCount * 2);
+                }
+                constants[constantCount] = ((NumberNode) node).getValue();
+                add(CONSTANT, constantCount++, 1);
+            }
+            else if (node instanceof VariableNode) 
+            {
+                add(VARIABLE, ((VariableNode) node).getIndex(), 1);
+            }
+            else if (node instanceof FractionalPowerNode) 
+            {
+                FractionalPowerNode power = (FractionalPowerNode) node;
+                add(FRACTIONAL_POWER, addFraction(power.getNumerator(), power.getDenominator()), 0);
+            }
+            else if (node instanceof DecimalPowerNode) 
+            {
+                DecimalPowerNode power = (DecimalPowerNode) node;
+                add(DECIMAL_POWER, addFraction(power.getNumerator(), power.getDenominator()), 0);
+            }
+            else if (node instanceof IntegerPowerNode) 
+            {
+                add(INTEGER_POWER, ((IntegerPowerNode) node).getExponent(), 0);
+            }
+            else if (node instanceof BinaryOperationNode) 
+            {
+                add(instructionOf(((BinaryOperationNode) node).getOperator()), 0, -1);
+            }
+            else if (node instanceof SumNode) 
+            {
+                // The running sum and its compensation become the sum
+                add(SUM_END, 0, -1);
+            }
+            else 
+            {
+                throw new IllegalArgumentException("Cannot flatten node " + node.getClass().getSimpleName());
+            }
+        }
+
+        
+        
+        /**
+         * Adds the step that takes a term of a sum, whose value was just pushed, into the running sum.
+         * The first term starts the sum, negated if it is subtracted, and pushes a compensation of zero above it.
+         */
+        void addSumStep(SumNode sum, int term) 
+        {
+            boolean subtracted = sum.getSubtracted()[term];
+            if (term == 0) 
+            {
+                add(SUM_START, subtracted ? 1 : 0, 1);
+            }
+            else 
+            {
+                add(subtracted ? SUM_SUBTRACT : SUM_ADD, 0, -1);
+            }
+        }
+
+        
+        
+        private void add(byte instruction, int argument, int stackChange) 
+        {
+            if (instructionCount == instructions.length) 
+            {
+                instructions = Arrays.copyOf(instructions, instructionCount * 2);
+                arguments = Arrays.copyOf(arguments, instructionCount * 2);
+            }
+            instructions[instructionCount] = instruction;
+            arguments[instructionCount++] = argument;
+            stackDepth += stackChange;
+            maximumStackDepth = Math.max(maximumStackDepth, stackDepth);
+        }
+
+        
+        
+        private int addFraction(int numerator, int denominator) 
+        {
+            if (fractionCount == numerators.length) 
+            {
+                numerators = Arrays.copyOf(numerators, fractionCount * 2);
+                denominators = Arrays.copyOf(denominators, fractionCount * 2);
+            }
+            numerators[fractionCount] = numerator;
+            denominators[fractionCount] = denominator;
+            return fractionCount++;
+        }
+
+        
+        
+        PostfixProgram build() 
+        {
+            return new PostfixProgram(Arrays.copyOf(instructions, instructionCount), Arrays.copyOf(arguments, instructionCount), 
+                    Arrays.copyOf(constants, constantCount), Arrays.copyOf(numerators, fractionCount), 
+                    Arrays.copyOf(denominators, fractionCount), maximumStackDepth);
+        }
+    }
+}
@@ -5,8 +5,49 @@ package com.fdmgroup.tdd.Calculator;
  */
 public class PowerCalculator {
 	
+	private static final double MILLION = 1000000.0;
+	private static final double TWO_POWER_52 = 4503599627370496.0;
+	
+	private final NthRootSolver nthRootSolver;
+	
+	
+	
+    /**
+     * Creates a power calculator that finds roots with the shared NthRootSolver.
+     */
+	public PowerCalculator() 
+	{
+		this(NthRootSolver.shared());
+	}
+	
+	
+	
+    /**
+     * Creates a power calculator that finds roots with the given solver.
+     *
+     * @param nthRootSolver The solver for nth roots.
+     */
+	public PowerCalculator(NthRootSolver nthRootSolver) 
+	{
+		this.nthRootSolver = nthRootSolver;
+	}
+	
+	
+	
+    /**
+     * Returns the solver this calculator uses for nth roots.
+     *
+     * @return The nth root solver.
+     */
+	public NthRootSolver getNthRootSolver() 
+	{
+		return nthRootSolver;
+	}
+	
     /**
      * Calculates the power of a base with an integer exponent.
+     * The exponent is halved at each recursive step (exponentiation by squaring),
+     * so the recursion depth is logarithmic in the exponent.
      *
      * @param base     The base number.
      * @param exponent The exponent in a form of an integer.
@@ -21,9 +62,12 @@ public class PowerCalculator {
         } 
         else if (exponent > 0) 
         {
-            return base * power(base, exponent - 1);
+            // base^n = (base^(n/2))^2, times base once more when n is odd
+            double half = power(base, exponent / 2);
+            return exponent % 2 == 0 ? half * half : half * half * base;
         } else 
         {
+            // -exponent - 1 cannot overflow, even for Integer.MIN_VALUE
             return 1.0 / (base * power(base, -exponent - 1));
         }
     }
@@ -32,6 +76,7 @@ public class PowerCalculator {
     
     /**
      * Calculates the power of a base with a decimal exponent.
+     * Integer-valued exponents go straight to power(double, int); others are converted to a fraction for powerHelper.
      *
      * @param base     The base number.
      * @param exponent The exponent in the form of a decimal.
@@ -39,11 +84,25 @@ public class PowerCalculator {
      */
 	public double power(double base, double exponent) 
 	{
+		// Integer exponents need no fraction, so use the integer power directly
+		if (exponent == (int) exponent) 
+		{
+			return power(base, (int) exponent);
+		}
+		
 		// Convert decimal exponent to fraction
 		int[] fraction = decimalToFraction(exponent);
 		int numerator = fraction[0];
 		int denominator = fraction[1];
-    	return powerHelper(base, numerator, denominator);
+		
+		FractionalPowerEvent event = new FractionalPowerEvent();
+		event.begin();
+		double result = rationalPower(base, numerator, denominator);
+		if (event.shouldCommit()) 
+		{
+			commit(event, base, numerator, denominator, ExponentKind.REAL);
+		}
+		return result;
 	}
 	
 	
@@ -57,50 +116,82 @@ public class PowerCalculator {
 	 */
 	public double powerHelper(double base, int numerator, int denominator) 
 	{
-		String exponent;
-		
+		FractionalPowerEvent event = new FractionalPowerEvent();
+		event.begin();
+		double result = rationalPower(base, numerator, denominator);
+		if (event.shouldCommit()) 
+		{
+			commit(event, base, numerator, denominator, ExponentKind.RATIONAL);
+		}
+		return result;
+	}
+	
+	
+	
+	/**
+	 * Calculates the power of a base with a fractional exponent, reducing the fraction by its smallest
+	 * prime factors until both parts are prime.
+	 *
+	 * @param base       The base number.
+	 * @param numerator   The numerator of the fractional exponent.
+	 * @param denominator The denominator of the fractional exponent.
+	 * @return The result of the power operation.
+	 */
+	private double rationalPower(double base, int numerator, int denominator) 
+	{
 		// Handle negative numerator by converting it to a positive exponent
 		if (numerator < 0) {
 			base = power(base, -1);
 			numerator = -numerator;
 		}
 		
+		boolean numeratorIsPrime = isPrime(numerator);
+		boolean denominatorIsPrime = isPrime(denominator);
+		
 		// Check if both numerator and denominator are prime numbers
-		if (isPrime(numerator) && isPrime(denominator)) {
-			exponent = "("+numerator+"/"+denominator+")";
-			return power(base, exponent);
+		if (numeratorIsPrime && denominatorIsPrime) {
+			return fractionalPower(base, numerator, denominator);
 		}
 		
 		// Handle cases where numerator is not prime
-		if (!isPrime(numerator)) {
+		if (!numeratorIsPrime) {
 			int smallestDivisorNumerator =  findSmallestDivisor(numerator);
-			exponent = "("+smallestDivisorNumerator+"/1)";			
-			base = power(base, exponent);
+			base = fractionalPower(base, smallestDivisorNumerator, 1);
 			numerator = numerator / smallestDivisorNumerator;
 		}
 		
 		// Handle cases where denominator is not prime
-		if (!isPrime(denominator)) {
+		if (!denominatorIsPrime) {
 			int smallestDivisorDenominator = findSmallestDivisor(denominator);
-			exponent = "(1/"+smallestDivisorDenominator+")";	
-			base = power(base, exponent);
+			base = fractionalPower(base, 1, smallestDivisorDenominator);
 			denominator = denominator / smallestDivisorDenominator;
 		}
 		
 		// Recursive call with updated numerator and denominator
-		return powerHelper(base, numerator, denominator);
+		return rationalPower(base, numerator, denominator);
 	}
 	
 	
 	
     /**
      * Finds the smallest divisor of a number.
+     * The answer is looked up in the shared SmallestPrimeFactorTable.
      *
      * @param number The number to find the smallest divisor of.
-     * @return The smallest divisor of the number.
+     * @return The smallest divisor of the number (2 for zero, 1 for 1 and -1).
      */
     public int findSmallestDivisor(int number) {
-    	return findSmallestDivisorHelper (number, 2);
+    	if (CalculatorMetrics.isRecording()) {
+    		CalculatorMetrics.get().recordPrimeCheck();
+    	}
+    	// Every even number, including zero and Integer.MIN_VALUE, is divisible by 2
+    	if (number % 2 == 0) {
+    		return 2;
+    	}
+    	if (number == 1 || number == -1) {
+    		return 1;
+    	}
+    	return SmallestPrimeFactorTable.shared().smallestPrimeFactor(Math.abs(number));
     }
     
     
@@ -126,12 +217,20 @@ public class PowerCalculator {
     
     /**
      * Checks if a number is prime.
+     * Numbers below 4 (including 0, 1 and negative numbers) are treated as prime, as isPrimeHelper does;
+     * larger numbers are looked up in the shared SmallestPrimeFactorTable.
      *
      * @param number The number to check for primality.
      * @return True if the number is prime, false otherwise.
      */
     public boolean isPrime(int number) {
-    	return isPrimeHelper(number, 2);
+    	if (CalculatorMetrics.isRecording()) {
+    		CalculatorMetrics.get().recordPrimeCheck();
+    	}
+    	if (number < 4) {
+    		return true;
+    	}
+    	return SmallestPrimeFactorTable.shared().isPrime(number);
     }
     
     
@@ -169,16 +268,23 @@ public class PowerCalculator {
 	public boolean isFractionalString(String expression) 
 	{
 		// Check if the expression represents a fractional number
-        if (expression.contains("/") && 
-        		!expression.contains(".") && 
-        		!expression.contains("+") && !expression.contains("*") && !expression.substring(expression.indexOf('/')+1, expression.length()).contains(expression) && 
-        		expression.startsWith("(") && expression.endsWith(")")) {
-        	return true;
-        }
-        else 
-        {
-        	return false;
-        }
+		if (!expression.startsWith("(") || !expression.endsWith(")")) 
+		{
+			return false;
+		}
+		
+		// Scan once for a '/' and for characters that cannot appear in a fraction
+		boolean containsSlash = false;
+		for (int i = 0; i < expression.length(); i++) 
+		{
+			char c = expression.charAt(i);
+			if (c == '.' || c == '+' || c == '*') 
+			{
+				return false;
+			}
+			containsSlash |= c == '/';
+		}
+		return containsSlash;
 	}
 	
 	
@@ -196,9 +302,55 @@ public class PowerCalculator {
     	int numerator = Integer.parseInt(exponent.substring(1,exponent.indexOf('/')));
     	int denominator = Integer.parseInt(exponent.substring(exponent.indexOf('/')+1, exponent.length()-1));
 		     
-    	double result = calculateNthRoot(power(base, numerator), denominator);
-		
-        return result;
+        return power(base, numerator, denominator);
+	}
+	
+	
+	
+    /**
+     * Calculates the power of a base with a fractional exponent given as its numerator and denominator.
+     *
+     * @param base        The base number.
+     * @param numerator   The numerator of the fractional exponent.
+     * @param denominator The denominator of the fractional exponent.
+     * @return The result of the power operation.
+     */
+	public double power(double base, int numerator, int denominator) 
+	{
+		FractionalPowerEvent event = new FractionalPowerEvent();
+		event.begin();
+		double result = fractionalPower(base, numerator, denominator);
+		if (event.shouldCommit()) 
+		{
+			commit(event, base, numerator, denominator, ExponentKind.RATIONAL);
+		}
+		return result;
+	}
+	
+	
+	
+	/**
+	 * Calculates the power of a base with a fractional exponent as the denominator-th root of base^numerator.
+	 */
+	private double fractionalPower(double base, int numerator, int denominator) 
+	{
+		// Raise the base to the numerator, then take the denominator-th root
+		return calculateNthRoot(power(base, numerator), denominator);
+	}
+	
+	
+	
+	/**
+	 * Fills in and commits a fractional power event; callers check shouldCommit() first, so that while
+	 * the event is disabled it never escapes and the JIT can remove its allocation.
+	 */
+	private static void commit(FractionalPowerEvent event, double base, int numerator, int denominator, ExponentKind kind) 
+	{
+		event.base = base;
+		event.numerator = numerator;
+		event.denominator = denominator;
+		event.exponentKind = kind.name();
+		event.commit();
 	}
 	
 	
@@ -253,7 +405,8 @@ public class PowerCalculator {
     
     
     /**
-     * Calculates the nth root of a number using the Newton-Raphson method.
+     * Calculates the nth root of a number using the Newton-Raphson method of the NthRootSolver,
+     * truncated to 6 decimal places.
      *
      * @param number The number to calculate the root of.
      * @param n      The degree of the root.
@@ -272,56 +425,7 @@ public class PowerCalculator {
         	return x; // Special case: x power 1 is x
         }
 
-        double guess = x / n; // Initial guess for the nth root
-        return calculateNthRootRecursive(x, n, guess);
-    }
-
-    
-    
-    /**
-     * Recursive method to calculate the next guess for the nth root using Newton's method.
-     *
-     * @param x     The number to calculate the root of.
-     * @param n     The degree of the root.
-     * @param guess The current guess for the root.
-     * @return The next guess for the root.
-     */
-    private double calculateNthRootRecursive(double x, int n, double guess) 
-    {
-        // Calculate the next guess using the Newton's method
-    	  	
-    	// Calculate the next guess using the formula: nextGuess = ((n - 1) * guess + x / guess^(n - 1)) / n
-    	
-    	// Calculate the next guess
-    	double nextGuess = ((n - 1) * guess + x / power(guess, n - 1)) / n;
-
-        // Check if the next guess is close enough to the previous guess
-        if (closeEnough(nextGuess, guess)) 
-        {
-            return truncate(nextGuess, 6); // Truncate to 6 decimal places
-        }
-
-        // Recursive call with the next guess as the new current guess
-        return calculateNthRootRecursive(x, n, nextGuess);
-    }
-
-    
-    
-    /**
-     * Checks if two numbers are close enough (within a specified epsilon).
-     *
-     * @param a The first number.
-     * @param b The second number.
-     * @return True if the numbers are close enough, false otherwise.
-     */
-    private boolean closeEnough(double a, double b) 
-    {
-        // Check if two numbers are close enough (within a specified epsilon)
-    	
-        double epsilon = 0.0000001; // The desired precision
-        
-        // Compare the difference between the numbers with the epsilon
-        return truncate(a - b, 6) < epsilon && truncate(b - a, 6) < epsilon;
+        return truncate(nthRootSolver.solve(this, x, n), 6); // Truncate to 6 decimal places
     }
 
     
@@ -338,8 +442,15 @@ public class PowerCalculator {
         // Truncate the value to the specified number of decimal places
     	
         // Multiply the value by the power of 10, truncate the fractional part, and divide by the power of 10
-        int multiplier = (int) power(10, decimalPlaces);
-        return floor(value * multiplier) / multiplier;
+        double multiplier = decimalPlaces == 6 ? MILLION : power(10, decimalPlaces);
+        double scaled = value * multiplier;
+
+        // Beyond 2^52 every double is already a whole number (and NaN or infinity has nothing to truncate)
+        if (!(Math.abs(scaled) < TWO_POWER_52)) 
+        {
+            return value;
+        }
+        return floor(scaled) / multiplier;
     }
 
     
@@ -347,7 +458,7 @@ public class PowerCalculator {
     /**
      * Truncates the fractional part of the value.
      *
-     * @param value The value to truncate.
+     * @param value The value to truncate, smaller than 2^52 in magnitude.
      * @return The truncated value.
      */
     private double floor(double value) 
@@ -356,14 +467,14 @@ public class PowerCalculator {
     	
         // If the integer part is less than or equal to the value, return the integer part
         // Otherwise, return the integer part minus 1
-        int intValue = (int) value;
-        if (intValue <= value) 
+        long longValue = (long) value;
+        if (longValue <= value) 
         {
-            return intValue;
+            return longValue;
         } 
         else 
         {
-            return intValue - 1;
+            return longValue - 1;
         }
     }
 }
@@ -0,0 +1,27 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The Reassociation enum selects how CompiledExpression.reassociate regroups long runs of + and - and of *.
+ * The parser builds such runs as left-leaning chains, one level per operator, which are evaluated in order;
+ * regrouping them changes where rounding happens, so results may differ in the last bits from the original.
+ * Runs of * are balanced in both modes; for n factors the relative error of the product is at most about
+ * ceil(log2(n)) units in the last place, against n - 1 for the chain.
+ */
+public enum Reassociation {
+
+    /**
+     * Rebuilds each run into a balanced tree of the same operators, which is pairwise summation.
+     * For n terms the error of a sum is bounded by about ceil(log2(n)) * 2^-53 times the sum of the absolute
+     * values of the terms, against (n - 1) * 2^-53 for the chain, and the tree is only log2(n) levels deep.
+     * The result is an ordinary tree, so every evaluation mode and compileToBytecode() still apply.
+     */
+    BALANCED,
+
+    /**
+     * Replaces each run of + and - with a single node that adds its terms in one loop with compensated
+     * (Kahan-Babuska) summation, which carries the rounding error of every addition in a second accumulator.
+     * The error of a sum is about 2^-53 of its result plus n * 2^-106 times the sum of the absolute values of
+     * the terms, so it does not grow with n in practice. The summation nodes are not translated to bytecode.
+     */
+    COMPENSATED
+}
@@ -0,0 +1,168 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The SmallestPrimeFactorTable class answers primality and smallest divisor queries from a shared sieve.
+ * The table maps every number up to its limit to its smallest prime factor. It is built lazily and grown
+ * by doubling when a larger number is queried, up to MAXIMUM_LIMIT; larger numbers use trial division.
+ * Repeatedly dividing by the smallest prime factor factorizes a number in O(log n) lookups.
+ */
+public final class SmallestPrimeFactorTable {
+
+    /** The largest number the table grows to cover (4 MB of entries). */
+    public static final int MAXIMUM_LIMIT = 1 << 20;
+
+    /** Covers every denominator produced by PowerCalculator.decimalToFraction without growing. */
+    private static final int INITIAL_LIMIT = 1 << 14;
+
+    private static final SmallestPrimeFactorTable SHARED = new SmallestPrimeFactorTable();
+
+    private volatile int[] smallestPrimeFactors = new int[0];
+
+    /**
+     * Returns the table shared by all PowerCalculator instances.
+     *
+     * @return The shared table.
+     */
+    public static SmallestPrimeFactorTable shared() 
+    {
+        return SHARED;
+    }
+
+    
+    
+    /**
+     * Finds the smallest prime factor of a number.
+     *
+     * @param number The number, at least 2.
+     * @return The smallest prime factor of the number.
+     */
+    public int smallestPrimeFactor(int number) 
+    {
+        int[] table = smallestPrimeFactors;
+        if (number < table.length) 
+        {
+            return table[number];
+        }
+        if (number <= MAXIMUM_LIMIT) 
+        {
+            return grow(number)[number];
+        }
+        return trialDivision(number);
+    }
+
+    
+    
+    /**
+     * Checks if a number is prime.
+     *
+     * @param number The number, at least 2.
+     * @return True if the number is prime, false otherwise.
+     */
+    public boolean isPrime(int number) 
+    {
+        return smallestPrimeFactor(number) == number;
+    }
+
+    
+    
+    /**
+     * Returns the largest number the table currently covers.
+     *
+     * @return The current limit, or -1 if the table has not been built yet.
+     */
+    public int getLimit() 
+    {
+        return smallestPrimeFactors.length - 1;
+    }
+
+    
+    
+    /**
+     * Returns the approximate heap memory used by the table.
+     *
+     * @return The size of the table in bytes.
+     */
+    public long getMemoryFootprintBytes() 
+    {
+        // 16 bytes of array header plus one int per entry
+        return 16L + 4L * smallestPrimeFactors.length;
+    }
+
+    
+    
+    /**
+     * Rebuilds the table so that it covers the given number.
+     *
+     * @param number The number the table must cover.
+     * @return The new table.
+     */
+    private synchronized int[] grow(int number) 
+    {
+        // Another thread may have grown the table while this one waited
+        int[] table = smallestPrimeFactors;
+        if (number < table.length) 
+        {
+            return table;
+        }
+
+        long doubled = Math.max(2L * table.length, INITIAL_LIMIT);
+        int limit = (int) Math.min(Math.max(doubled, number), MAXIMUM_LIMIT);
+        table = sieve(limit);
+        smallestPrimeFactors = table;
+        return table;
+    }
+
+    
+    
+    /**
+     * Computes the smallest prime factor of every number up to the limit with a linear sieve.
+     * Each composite is written exactly once, by its smallest prime factor.
+     *
+     * @param limit The largest number to cover.
+     * @return The table of smallest prime factors.
+     */
+    private static int[] sieve(int limit) 
+    {
+        int[] table = new int[limit + 1];
+        int[] primes = new int[limit + 1];
+        int primeCount = 0;
+
+        for (int i = 2; i <= limit; i++) 
+        {
+            if (table[i] == 0) 
+            {
+                table[i] = i;
+                primes[primeCount++] = i;
+            }
+            for (int j = 0; j < primeCount && primes[j] <= table[i] && (long) i * primes[j] <= limit; j++) 
+            {
+                table[i * primes[j]] = primes[j];
+            }
+        }
+        return table;
+    }
+
+    
+    
+    /**
+     * Finds the smallest prime factor of a number beyond the table by trial division up to its square root.
+     *
+     * @param number The number.
+     * @return The smallest prime factor of the number.
+     */
+    private static int trialDivision(int number) 
+    {
+        if (number % 2 == 0) 
+        {
+            return 2;
+        }
+        for (int divisor = 3; (long) divisor * divisor <= number; divisor += 2) 
+        {
+            if (number % divisor == 0) 
+            {
+                return divisor;
+            }
+        }
+        return number;
+    }
+}
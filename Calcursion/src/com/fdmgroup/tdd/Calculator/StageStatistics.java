@@ -0,0 +1,113 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The StageStatistics class is a snapshot of the timings of one stage recorded by CalculatorMetrics.
+ * The latency histogram has one bucket per power of two: bucket i counts the calls that took
+ * at least 2^i and less than 2^(i+1) nanoseconds (bucket 0 also counts calls measured as 0).
+ */
+public final class StageStatistics {
+
+    private final long count;
+    private final long totalNanos;
+    private final long maximumNanos;
+    private final long allocatedBytes;
+    private final long[] histogram;
+
+    @ConstructorProperties({"count", "totalNanos", "maximumNanos", "allocatedBytes", "histogram"})
+    public StageStatistics(long count, long totalNanos, long maximumNanos, long allocatedBytes, long[] histogram) 
+    {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maximumNanos = maximumNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.histogram = histogram.clone();
+    }
+
+    
+    
+    public long getCount() 
+    {
+        return count;
+    }
+
+    
+    
+    public long getTotalNanos() 
+    {
+        return totalNanos;
+    }
+
+    
+    
+    public long getMaximumNanos() 
+    {
+        return maximumNanos;
+    }
+
+    
+    
+    /**
+     * Returns the bytes allocated by the calling threads during the stage, or 0 if the JVM cannot measure them.
+     *
+     * @return The allocated bytes.
+     */
+    public long getAllocatedBytes() 
+    {
+        return allocatedBytes;
+    }
+
+    
+    
+    public long[] getHistogram() 
+    {
+        return histogram.clone();
+    }
+
+    
+    
+    public double getMeanNanos() 
+    {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    
+    
+    public double getMeanAllocatedBytes() 
+    {
+        return count == 0 ? 0 : (double) allocatedBytes / count;
+    }
+
+    
+    
+    /**
+     * Estimates a latency percentile from the histogram.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound in nanoseconds of the bucket holding the percentile, or 0 if nothing was recorded.
+     */
+    public long percentileNanos(double percentile) 
+    {
+        long target = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) 
+        {
+            seen += histogram[i];
+            if (seen >= target && seen > 0) 
+            {
+                return i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+            }
+        }
+        return 0;
+    }
+
+    
+    
+    @Override
+    public String toString() 
+    {
+        return "StageStatistics[count=" + count + ", meanNanos=" + getMeanNanos() + ", maximumNanos=" + maximumNanos 
+                + ", meanAllocatedBytes=" + getMeanAllocatedBytes() + "]";
+    }
+}
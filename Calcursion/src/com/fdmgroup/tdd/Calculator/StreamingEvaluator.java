@@ -0,0 +1,391 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The StreamingEvaluator class evaluates newline-separated expressions read from a channel and writes one result
+ * per line, in input order, to another channel.
+ * Input is read in chunks of whole lines that are evaluated in parallel; each chunk owns its input and output
+ * buffers, a parser and a character view, and is reused once its output is written.
+ * At most a fixed number of chunks exist at once, so memory stays bounded whatever the size of the input
+ * (a line longer than a chunk grows that chunk to fit it).
+ * A line that cannot be evaluated produces "Error: " and the reason, so output lines always match input lines.
+ * Results are written as UTF-8; input is read one byte per character, so a non-ASCII byte quoted in an error
+ * message is written as the ISO-8859-1 character it stands for.
+ */
+public class StreamingEvaluator {
+
+    /** The default number of input bytes per chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final Calculator calculator;
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * Creates a streaming evaluator with one thread per available processor and the default chunk size.
+     *
+     * @param calculator The calculator whose evaluation mode is used; its cache is bypassed.
+     */
+    public StreamingEvaluator(Calculator calculator) 
+    {
+        this(calculator, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    
+    
+    /**
+     * Creates a streaming evaluator.
+     *
+     * @param calculator The calculator whose evaluation mode is used; its cache is bypassed.
+     * @param threads    The number of chunks evaluated in parallel.
+     * @param chunkSize  The number of input bytes per chunk.
+     * @throws IllegalArgumentException If the thread count or chunk size is not positive.
+     */
+    public StreamingEvaluator(Calculator calculator, int threads, int chunkSize) 
+    {
+        if (threads <= 0 || chunkSize <= 0) 
+        {
+            throw new IllegalArgumentException("Invalid thread count " + threads + " or chunk size " + chunkSize);
+        }
+        this.calculator = calculator;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    
+    
+    /**
+     * Evaluates every line of the input and writes the results to the output.
+     * Neither channel is closed.
+     *
+     * @param input  The channel to read expressions from.
+     * @param output The channel to write results to.
+     * @return The number of lines evaluated.
+     * @throws IOException If reading or writing fails, or the thread is interrupted.
+     */
+    public long evaluate(ReadableByteChannel input, WritableByteChannel output) throws IOException 
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "streaming-evaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try 
+        {
+            return new Run(executor, output).readAll(input);
+        }
+        finally 
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    
+    
+    /**
+     * The state of one call to evaluate: the chunks waiting to be written, in input order, and the free ones.
+     */
+    private final class Run {
+
+        // Two chunks per thread keep every thread busy while the reader fills the next one
+        private final int maximumChunks = threads * 2 + 1;
+        private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        private final ArrayDeque<Chunk> free = new ArrayDeque<Chunk>();
+        private final ExecutorService executor;
+        private final WritableByteChannel output;
+        private int chunkCount;
+        private long lineCount;
+
+        Run(ExecutorService executor, WritableByteChannel output) 
+        {
+            this.executor = executor;
+            this.output = output;
+        }
+
+        
+        
+        /**
+         * Reads the input chunk by chunk, handing each run of whole lines to the executor
+         * and carrying the partial line at its end over to the next chunk.
+         */
+        long readAll(ReadableByteChannel input) throws IOException 
+        {
+            Chunk current = acquire();
+            boolean endOfInput = false;
+            while (!endOfInput) 
+            {
+                endOfInput = current.fill(input);
+                int end = endOfInput ? current.inputLength : current.lastLineEnd();
+                if (end == 0 && !endOfInput) 
+                {
+                    // A single line fills the whole chunk; make room for the rest of it
+                    current.growInput();
+                    continue;
+                }
+
+                Chunk next = acquire();
+                next.carryOver(current, end);
+                submit(current);
+                current = next;
+            }
+            free.push(current);
+
+            while (!pending.isEmpty()) 
+            {
+                write(await());
+            }
+            return lineCount;
+        }
+
+        
+        
+        private void submit(Chunk chunk) 
+        {
+            pending.add(executor.submit(() -> {
+                chunk.evaluateLines(calculator);
+                return chunk;
+            }));
+        }
+
+        
+        
+        /**
+         * Returns a free chunk, creating one while under the limit and otherwise writing the oldest pending chunk.
+         */
+        private Chunk acquire() throws IOException 
+        {
+            if (!free.isEmpty()) 
+            {
+                return free.pop();
+            }
+            if (chunkCount < maximumChunks) 
+            {
+                chunkCount++;
+                return new Chunk(chunkSize);
+            }
+            write(await());
+            return free.pop();
+        }
+
+        
+        
+        private Chunk await() throws IOException 
+        {
+            try 
+            {
+                return pending.poll().get();
+            }
+            catch (InterruptedException e) 
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while evaluating");
+            }
+            catch (ExecutionException e) 
+            {
+                throw new IOException("Evaluation failed", e.getCause());
+            }
+        }
+
+        
+        
+        private void write(Chunk chunk) throws IOException 
+        {
+            ByteBuffer buffer = chunk.outputBuffer();
+            while (buffer.hasRemaining()) 
+            {
+                output.write(buffer);
+            }
+            lineCount += chunk.lineCount;
+            free.push(chunk);
+        }
+    }
+
+    
+    
+    /**
+     * A run of whole input lines with everything needed to evaluate and format them on one thread.
+     */
+    private static final class Chunk {
+
+        private final ExpressionParser parser = new ExpressionParser();
+        private final SyntaxValidator validator = new SyntaxValidator();
+        private final ByteCharSequence line = new ByteCharSequence();
+        private final StringBuilder text = new StringBuilder(32);
+        private byte[] input;
+        private int inputLength;
+        private byte[] output;
+        private int outputLength;
+        private ByteBuffer outputView;
+        private int lineCount;
+
+        Chunk(int size) 
+        {
+            input = new byte[size];
+            output = new byte[size];
+        }
+
+        
+        
+        /**
+         * Reads until the input buffer is full or the channel ends.
+         *
+         * @return True if the channel has ended.
+         */
+        boolean fill(ReadableByteChannel channel) throws IOException 
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(input, inputLength, input.length - inputLength);
+            while (buffer.hasRemaining()) 
+            {
+                if (channel.read(buffer) < 0) 
+                {
+                    inputLength = buffer.position();
+                    return true;
+                }
+            }
+            inputLength = buffer.position();
+            return false;
+        }
+
+        
+        
+        /**
+         * Returns the index just after the last newline, or 0 if the buffer holds no complete line.
+         */
+        int lastLineEnd() 
+        {
+            for (int i = inputLength - 1; i >= 0; i--) 
+            {
+                if (input[i] == '\n') 
+                {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
+        
+        
+        void growInput() 
+        {
+            input = Arrays.copyOf(input, input.length * 2);
+        }
+
+        
+        
+        /**
+         * Starts this chunk with the bytes of the previous chunk from the given index on, and cuts them from it.
+         */
+        void carryOver(Chunk previous, int end) 
+        {
+            int remaining = previous.inputLength - end;
+            if (remaining > input.length) 
+            {
+                input = new byte[Math.max(remaining, input.length * 2)];
+            }
+            System.arraycopy(previous.input, end, input, 0, remaining);
+            inputLength = remaining;
+            previous.inputLength = end;
+        }
+
+        
+        
+        /**
+         * Evaluates every line of the input and formats the results into the output buffer.
+         * A final line without a newline is still evaluated; a trailing carriage return is ignored.
+         */
+        void evaluateLines(Calculator calculator) 
+        {
+            outputLength = 0;
+            lineCount = 0;
+            int start = 0;
+            while (start < inputLength) 
+            {
+                int end = start;
+                while (end < inputLength && input[end] != '\n') 
+                {
+                    end++;
+                }
+                int lineEnd = end > start && input[end - 1] == '\r' ? end - 1 : end;
+
+                text.setLength(0);
+                EvaluationResult result = calculator.tryEvaluate(validator, parser, line.reset(input, start, lineEnd - start));
+                if (result.isSuccess()) 
+                {
+                    text.append(result.getValue());
+                }
+                else 
+                {
+                    text.append("Error: ").append(result.getMessage());
+                }
+                text.append('\n');
+                appendOutput();
+
+                lineCount++;
+                start = end + 1;
+            }
+            inputLength = 0;
+        }
+
+        
+        
+        /**
+         * Copies the formatted text into the output buffer as UTF-8, growing it if needed.
+         * ASCII is copied byte by byte; the rest of a line holding any other character goes through the encoder.
+         */
+        private void appendOutput() 
+        {
+            int length = text.length();
+            ensureOutputSpace(length);
+            for (int i = 0; i < length; i++) 
+            {
+                char c = text.charAt(i);
+                if (c >= 0x80) 
+                {
+                    byte[] encoded = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                    ensureOutputSpace(encoded.length);
+                    System.arraycopy(encoded, 0, output, outputLength, encoded.length);
+                    outputLength += encoded.length;
+                    return;
+                }
+                output[outputLength++] = (byte) c;
+            }
+        }
+
+        
+        
+        private void ensureOutputSpace(int length) 
+        {
+            if (outputLength + length > output.length) 
+            {
+                output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + length));
+            }
+        }
+
+        
+        
+        /**
+         * Returns a buffer over the formatted results, reusing the previous one while the output array is the same.
+         */
+        ByteBuffer outputBuffer() 
+        {
+            if (outputView == null || outputView.array() != output) 
+            {
+                outputView = ByteBuffer.wrap(output);
+            }
+            outputView.clear().limit(outputLength);
+            return outputView;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The SumNode class represents a run of additions and subtractions evaluated as one compensated sum.
+ * It is only built by ExpressionReassociator for Reassociation.COMPENSATED.
+ */
+final class SumNode extends ExpressionNode {
+
+    private final ExpressionNode[] terms;
+    private final boolean[] subtracted;
+
+    /**
+     * Creates a node summing its terms.
+     *
+     * @param terms      The terms, in the order they appeared.
+     * @param subtracted For each term, true if it is subtracted rather than added.
+     */
+    SumNode(ExpressionNode[] terms, boolean[] subtracted) 
+    {
+        this.terms = terms;
+        this.subtracted = subtracted;
+    }
+
+    
+    
+    ExpressionNode[] getTerms() 
+    {
+        return terms;
+    }
+
+    
+    
+    boolean[] getSubtracted() 
+    {
+        return subtracted;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        // Neumaier's variant of Kahan summation, which also compensates when a term is larger than the running sum
+        double sum = subtracted[0] ? -terms[0].evaluate(variables) : terms[0].evaluate(variables);
+        double compensation = 0;
+        for (int i = 1; i < terms.length; i++) 
+        {
+            double term = subtracted[i] ? -terms[i].evaluate(variables) : terms[i].evaluate(variables);
+            double next = sum + term;
+            compensation += error(sum, term, next);
+            sum = next;
+        }
+        return finish(sum, compensation);
+    }
+
+    
+    
+    /**
+     * Returns the rounding error of one addition, to be added to the compensation.
+     *
+     * @param sum  The running sum.
+     * @param term The term added to it.
+     * @param next The rounded result of sum + term.
+     * @return The exact sum minus next.
+     */
+    static double error(double sum, double term, double next) 
+    {
+        return Math.abs(sum) >= Math.abs(term) ? (sum - next) + term : (term - next) + sum;
+    }
+
+    
+    
+    /**
+     * Adds the compensation, unless the sum has overflowed or is NaN, where the compensation is meaningless.
+     *
+     * @param sum          The running sum.
+     * @param compensation The accumulated rounding errors.
+     * @return The compensated sum.
+     */
+    static double finish(double sum, double compensation) 
+    {
+        return Double.isFinite(sum) ? sum + compensation : sum;
+    }
+}
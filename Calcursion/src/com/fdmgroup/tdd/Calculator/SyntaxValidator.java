@@ -0,0 +1,110 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The SyntaxValidator class checks that an expression without variables can be parsed, in one pass over its tokens
+ * and without building a tree or evaluating anything.
+ * It follows the grammar of ExpressionParser with only two pieces of state: whether an operand or an operator
+ * comes next, and how many parentheses are open. An expression it accepts always parses, and one it rejects
+ * fails to parse at the same token.
+ * A validator reuses its lexer, so it is not thread-safe.
+ */
+final class SyntaxValidator {
+
+    private final ExpressionLexer lexer = new ExpressionLexer();
+
+    /**
+     * Checks the syntax of an expression.
+     *
+     * @param expression The expression to check.
+     * @return Null if the expression is valid, otherwise the failed result describing the first error.
+     */
+    EvaluationResult validate(CharSequence expression) 
+    {
+        lexer.reset(expression);
+        // An empty expression evaluates to zero
+        if (lexer.next() == TokenType.END) 
+        {
+            return null;
+        }
+
+        boolean expectOperand = true;
+        int depth = 0;
+        while (true) 
+        {
+            TokenType type = lexer.getTokenType();
+            if (expectOperand) 
+            {
+                switch (type) 
+                {
+                    case NUMBER:
+                        expectOperand = false;
+                        break;
+                    case LEFT_PARENTHESIS:
+                        depth++;
+                        break;
+                    case PLUS:
+                    case MINUS:
+                    case POSITIVE_SIGN:
+                    case NEGATIVE_SIGN:
+                        break;
+                    case IDENTIFIER:
+                        return failure(EvaluationError.UNKNOWN_VARIABLE);
+                    default:
+                        return unexpectedToken(type);
+                }
+            }
+            else 
+            {
+                switch (type) 
+                {
+                    case PLUS:
+                    case MINUS:
+                    case MULTIPLY:
+                    case DIVIDE:
+                    case POWER:
+                        expectOperand = true;
+                        break;
+                    case RIGHT_PARENTHESIS:
+                        if (depth == 0) 
+                        {
+                            return failure(EvaluationError.UNMATCHED_PARENTHESIS);
+                        }
+                        depth--;
+                        break;
+                    case END:
+                        return depth == 0 ? null : EvaluationResult.failure(EvaluationError.MISSING_PARENTHESIS, lexer.getTokenStart(), null);
+                    default:
+                        return unexpectedToken(type);
+                }
+            }
+            lexer.next();
+        }
+    }
+
+    
+    
+    private EvaluationResult unexpectedToken(TokenType type) 
+    {
+        switch (type) 
+        {
+            case END:
+                return EvaluationResult.failure(EvaluationError.UNEXPECTED_END, lexer.getTokenStart(), null);
+            case ERROR:
+                return failure(EvaluationError.INVALID_CHARACTER);
+            default:
+                return failure(EvaluationError.UNEXPECTED_TOKEN);
+        }
+    }
+
+    
+    
+    /**
+     * Creates the failed result for the current token.
+     */
+    private EvaluationResult failure(EvaluationError error) 
+    {
+        int start = lexer.getTokenStart();
+        String token = lexer.getSource().subSequence(start, start + lexer.getTokenLength()).toString();
+        return EvaluationResult.failure(error, start, token);
+    }
+}
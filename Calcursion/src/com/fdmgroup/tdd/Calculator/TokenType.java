@@ -0,0 +1,46 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The TokenType enum lists the kinds of tokens produced by the ExpressionLexer.
+ */
+enum TokenType {
+
+    /** A literal number such as "12" or "0.25". */
+    NUMBER,
+
+    /** A variable name such as "x" or "rate". */
+    IDENTIFIER,
+
+    /** A binary plus, or a plus sign opening an expression. */
+    PLUS,
+
+    /** A binary minus, or a minus sign opening an expression (which negates the whole term that follows). */
+    MINUS,
+
+    /** A plus sign directly following another operator. */
+    POSITIVE_SIGN,
+
+    /** A minus sign directly following another operator; it only negates the operand right after it. */
+    NEGATIVE_SIGN,
+
+    /** The multiplication operator. */
+    MULTIPLY,
+
+    /** The division operator. */
+    DIVIDE,
+
+    /** The exponentiation operator. */
+    POWER,
+
+    /** An opening parenthesis. */
+    LEFT_PARENTHESIS,
+
+    /** A closing parenthesis. */
+    RIGHT_PARENTHESIS,
+
+    /** A character that cannot start any token. */
+    ERROR,
+
+    /** The end of the input. */
+    END
+}
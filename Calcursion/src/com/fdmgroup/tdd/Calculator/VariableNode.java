@@ -0,0 +1,45 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The VariableNode class represents a named variable in a compiled expression.
+ * The name is resolved to a slot index at compile time, so evaluation is a single array read.
+ */
+final class VariableNode extends ExpressionNode {
+
+    private final String name;
+    private final int index;
+
+    /**
+     * Creates a node reading a variable slot.
+     *
+     * @param name  The name of the variable.
+     * @param index The slot of the variable in the bindings array.
+     */
+    VariableNode(String name, int index) 
+    {
+        this.name = name;
+        this.index = index;
+    }
+
+    
+    
+    String getName() 
+    {
+        return name;
+    }
+
+    
+    
+    int getIndex() 
+    {
+        return index;
+    }
+
+    
+    
+    @Override
+    double evaluate(double[] variables) 
+    {
+        return variables[index];
+    }
+}
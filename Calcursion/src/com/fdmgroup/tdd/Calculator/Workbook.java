@@ -0,0 +1,409 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Workbook class holds named inputs and formulas that refer to each other by name, such as total = a + b,
+ * and keeps their values up to date as inputs and formulas change.
+ * Each formula is compiled once; its variables are the names of other cells, and the links between cells
+ * form a dependency graph in which cycles are rejected.
+ * Changes are recorded until the next recalculation, which evaluates only the formulas downstream of a change.
+ * Every cell has a level one above its deepest dependency, so evaluating the affected formulas level by level
+ * respects their dependencies, and the formulas of a large level are evaluated in parallel.
+ * A workbook is not thread-safe.
+ */
+public final class Workbook {
+
+    /** Levels with more affected formulas than this are evaluated in parallel. */
+    static final int PARALLEL_THRESHOLD = 512;
+
+    private final Calculator calculator;
+    private final ForkJoinPool pool;
+    private final Map<String, Cell> cells = new HashMap<String, Cell>();
+    private final List<Cell> changed = new ArrayList<Cell>();
+
+    /**
+     * Creates a workbook compiling its formulas with the given calculator and evaluating large levels on the common pool.
+     *
+     * @param calculator The calculator compiling the formulas; a cache lets repeated formulas share one tree.
+     */
+    public Workbook(Calculator calculator) 
+    {
+        this(calculator, ForkJoinPool.commonPool());
+    }
+
+    
+    
+    /**
+     * Creates a workbook.
+     *
+     * @param calculator The calculator compiling the formulas; a cache lets repeated formulas share one tree.
+     * @param pool       The pool evaluating the formulas of large levels.
+     */
+    public Workbook(Calculator calculator, ForkJoinPool pool) 
+    {
+        this.calculator = calculator;
+        this.pool = pool;
+    }
+
+    
+    
+    /**
+     * Sets the value of an input cell, creating it if needed. A formula cell given a value becomes an input.
+     *
+     * @param name  The name of the cell.
+     * @param value The new value.
+     */
+    public void setInput(String name, double value) 
+    {
+        Cell cell = cell(name);
+        if (cell.formula != null) 
+        {
+            unlink(cell);
+            cell.formula = null;
+            cell.dependencies = new Cell[0];
+            cell.bindings = new double[0];
+            updateLevels(cell);
+        }
+        cell.value = value;
+        markChanged(cell);
+    }
+
+    
+    
+    /**
+     * Defines or replaces the formula of a cell. Names the formula refers to that are not defined yet
+     * become inputs holding NaN until they are set.
+     *
+     * @param name    The name of the cell.
+     * @param formula The formula, whose variables are the names of other cells.
+     * @throws IllegalArgumentException If the formula cannot be parsed or would make a cell depend on itself.
+     */
+    public void define(String name, String formula) 
+    {
+        CompiledExpression compiled = calculator.compile(formula);
+        List<String> names = compiled.getVariableNames();
+        Cell cell = cell(name);
+        Cell[] dependencies = new Cell[names.size()];
+        for (int i = 0; i < dependencies.length; i++) 
+        {
+            dependencies[i] = cell(names.get(i));
+            if (dependencies[i] == cell || dependsOn(dependencies[i], cell)) 
+            {
+                throw new IllegalArgumentException("Formula " + formula + " of " + name + " refers back to " + name);
+            }
+        }
+
+        unlink(cell);
+        cell.formula = compiled;
+        cell.dependencies = dependencies;
+        cell.bindings = new double[dependencies.length];
+        for (Cell dependency : dependencies) 
+        {
+            dependency.dependents.add(cell);
+        }
+        updateLevels(cell);
+        markChanged(cell);
+    }
+
+    
+    
+    /**
+     * Returns the value of a cell, recalculating first if anything has changed.
+     *
+     * @param name The name of the cell.
+     * @return The value of the cell.
+     * @throws IllegalArgumentException If no cell has the name.
+     */
+    public double get(String name) 
+    {
+        Cell cell = cells.get(name);
+        if (cell == null) 
+        {
+            throw new IllegalArgumentException("No cell named " + name);
+        }
+        recalculate();
+        return cell.value;
+    }
+
+    
+    
+    /**
+     * Returns the names of the cells whose formulas refer to the given cell.
+     *
+     * @param name The name of the cell.
+     * @return The names of its direct dependents, or an empty list if there is no such cell.
+     */
+    public List<String> getDependents(String name) 
+    {
+        Cell cell = cells.get(name);
+        List<String> names = new ArrayList<String>();
+        if (cell != null) 
+        {
+            for (Cell dependent : cell.dependents) 
+            {
+                names.add(dependent.name);
+            }
+        }
+        return names;
+    }
+
+    
+    
+    /**
+     * Evaluates every formula downstream of the changes made since the last recalculation, in dependency order.
+     *
+     * @return The number of formulas evaluated.
+     */
+    public int recalculate() 
+    {
+        if (changed.isEmpty()) 
+        {
+            return 0;
+        }
+
+        // Collect the changed cells and everything downstream of them, each once
+        List<Cell> affected = new ArrayList<Cell>();
+        for (Cell cell : changed) 
+        {
+            cell.changed = false;
+            if (!cell.affected) 
+            {
+                cell.affected = true;
+                affected.add(cell);
+            }
+        }
+        changed.clear();
+        for (int i = 0; i < affected.size(); i++) 
+        {
+            for (Cell dependent : affected.get(i).dependents) 
+            {
+                if (!dependent.affected) 
+                {
+                    dependent.affected = true;
+                    affected.add(dependent);
+                }
+            }
+        }
+        affected.sort(Comparator.comparingInt(cell -> cell.level));
+
+        int evaluated = 0;
+        int start = 0;
+        while (start < affected.size()) 
+        {
+            int level = affected.get(start).level;
+            int end = start;
+            while (end < affected.size() && affected.get(end).level == level) 
+            {
+                end++;
+            }
+            if (end - start > PARALLEL_THRESHOLD) 
+            {
+                pool.invoke(new LevelTask(affected, start, end));
+            }
+            else 
+            {
+                evaluateRange(affected, start, end);
+            }
+            start = end;
+        }
+
+        for (Cell cell : affected) 
+        {
+            cell.affected = false;
+            if (cell.formula != null) 
+            {
+                evaluated++;
+            }
+        }
+        return evaluated;
+    }
+
+    
+    
+    private Cell cell(String name) 
+    {
+        Cell cell = cells.get(name);
+        if (cell == null) 
+        {
+            cell = new Cell(name);
+            cells.put(name, cell);
+        }
+        return cell;
+    }
+
+    
+    
+    private void markChanged(Cell cell) 
+    {
+        if (!cell.changed) 
+        {
+            cell.changed = true;
+            changed.add(cell);
+        }
+    }
+
+    
+    
+    private void unlink(Cell cell) 
+    {
+        for (Cell dependency : cell.dependencies) 
+        {
+            dependency.dependents.remove(cell);
+        }
+    }
+
+    
+    
+    /**
+     * Checks if a cell depends on another, directly or through other formulas, by walking its dependencies.
+     * Only cells above the target's level can depend on it, so the walk stops below that level,
+     * and a target nothing refers to is never reached at all.
+     */
+    private static boolean dependsOn(Cell cell, Cell target) 
+    {
+        if (target.dependents.isEmpty() || cell.level <= target.level) 
+        {
+            return false;
+        }
+        Set<Cell> visited = Collections.newSetFromMap(new IdentityHashMap<Cell, Boolean>());
+        List<Cell> pending = new ArrayList<Cell>();
+        pending.add(cell);
+        while (!pending.isEmpty()) 
+        {
+            Cell next = pending.remove(pending.size() - 1);
+            for (Cell dependency : next.dependencies) 
+            {
+                if (dependency == target) 
+                {
+                    return true;
+                }
+                if (dependency.level > target.level && visited.add(dependency)) 
+                {
+                    pending.add(dependency);
+                }
+            }
+        }
+        return false;
+    }
+
+    
+    
+    /**
+     * Recomputes the level of a cell and pushes the change down to its dependents while their levels change.
+     */
+    private static void updateLevels(Cell cell) 
+    {
+        List<Cell> pending = new ArrayList<Cell>();
+        pending.add(cell);
+        while (!pending.isEmpty()) 
+        {
+            Cell next = pending.remove(pending.size() - 1);
+            int level = 0;
+            for (Cell dependency : next.dependencies) 
+            {
+                level = Math.max(level, dependency.level + 1);
+            }
+            if (level != next.level || next == cell) 
+            {
+                next.level = level;
+                pending.addAll(next.dependents);
+            }
+        }
+    }
+
+    
+    
+    private static void evaluateRange(List<Cell> cells, int start, int end) 
+    {
+        EvaluationContext context = EvaluationContext.current();
+        for (int i = start; i < end; i++) 
+        {
+            cells.get(i).evaluate(context);
+        }
+    }
+
+    
+    
+    /**
+     * A named input or formula with its links in the dependency graph.
+     */
+    private static final class Cell {
+
+        private final String name;
+        private final List<Cell> dependents = new ArrayList<Cell>();
+        private CompiledExpression formula;
+        private Cell[] dependencies = new Cell[0];
+        private double[] bindings = new double[0];
+        private double value = Double.NaN;
+        private int level;
+        private boolean changed;
+        private boolean affected;
+
+        Cell(String name) 
+        {
+            this.name = name;
+        }
+
+        
+        
+        /**
+         * Re-evaluates the formula from the current values of its dependencies; inputs keep their value.
+         */
+        void evaluate(EvaluationContext context) 
+        {
+            if (formula == null) 
+            {
+                return;
+            }
+            for (int i = 0; i < dependencies.length; i++) 
+            {
+                bindings[i] = dependencies[i].value;
+            }
+            value = formula.evaluate(bindings, context);
+        }
+    }
+
+    
+    
+    /**
+     * Evaluates one range of a level, splitting it in half while it is larger than the threshold.
+     * Formulas of the same level never depend on each other, so the halves can run at the same time.
+     */
+    private static final class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Cell> cells;
+        private final int start;
+        private final int end;
+
+        LevelTask(List<Cell> cells, int start, int end) 
+        {
+            this.cells = cells;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() 
+        {
+            if (end - start > PARALLEL_THRESHOLD) 
+            {
+                int middle = (start + end) >>> 1;
+                invokeAll(new LevelTask(cells, start, middle), new LevelTask(cells, middle, end));
+                return;
+            }
+            evaluateRange(cells, start, end);
+        }
+    }
+}
@@ -1,6 +1,45 @@
 package com.fdmgroup.tdd.Calculator;
 
 import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -580,6 +619,1322 @@ class CalculatorTest {
 	@Test
 	void test_calculate_complicated_expression_with_decimal_numbers_6() {
 	    assertEquals(-3, calculator.evaluate("((-1.1 / 0.2) + (-2.2 / 0.4) - (3.3 / 0.6)) / ((4.4 / 0.8) + (5.5 / 1) - (6.6 / 1.2))"));
-	}	
-}
+	}
+	
+	
+	
+	// ##################### COMPILED EXPRESSIONS #####################
+	
+	
+	
+	@Test
+	void test_compiled_expression_evaluates_like_evaluate() {
+		String expression = "(2 -- 3)^-0.6 * ((1/2)^0.5) /- 2";
+		assertEquals(calculator.evaluate(expression), calculator.compile(expression).evaluate());
+	}
+	
+	@Test
+	void test_compiled_expression_with_fractional_exponent() {
+		assertEquals(9, calculator.compile("27^(2/3)").evaluate());
+	}
+	
+	@Test
+	void test_compiled_expression_can_be_evaluated_repeatedly() {
+		CompiledExpression compiled = calculator.compile("-1 + 2/4 +23-34 * 23");
+		assertEquals(-759.5, compiled.evaluate());
+		assertEquals(-759.5, compiled.evaluate());
+	}
+	
+	@Test
+	void test_power_method_with_numerator_and_denominator() {
+		assertEquals(1.587401, powerCalculator.power(2, 2, 3), 0.000001);
+	}
+	
+	
+	
+	// Test the single-pass ExpressionLexer
+	
+	@Test
+	void test_lexer_skips_whitespace_and_reports_offsets() {
+		ExpressionLexer lexer = new ExpressionLexer();
+		lexer.reset(" 12.5 *  3");
+		assertEquals(TokenType.NUMBER, lexer.next());
+		assertEquals(1, lexer.getTokenStart());
+		assertEquals(4, lexer.getTokenLength());
+		assertEquals(TokenType.MULTIPLY, lexer.next());
+		assertEquals(TokenType.NUMBER, lexer.next());
+		assertEquals(9, lexer.getTokenStart());
+		assertEquals(TokenType.END, lexer.next());
+	}
+	
+	@Test
+	void test_lexer_classifies_minus_after_operator_as_negative_sign() {
+		ExpressionLexer lexer = new ExpressionLexer();
+		lexer.reset("-2--3");
+		assertEquals(TokenType.MINUS, lexer.next());
+		assertEquals(TokenType.NUMBER, lexer.next());
+		assertEquals(TokenType.MINUS, lexer.next());
+		assertEquals(TokenType.NEGATIVE_SIGN, lexer.next());
+	}
+	
+	@Test
+	void test_evaluate_matches_legacy_pipeline() {
+		ExpressionEvaluator evaluator = new ExpressionEvaluator();
+		String[] expressions = {"2*-3^2", "0.6^(-3/2*-1/2)", "-4^(-3/2)", "2^-0.256121", "(2 -- 3)^-0.6 * ((1/2)^0.5) /- 2"};
+		for (String expression : expressions) {
+			String legacy = parenthesisAdder.addParentheses(experssionsanitizer.sanitizeInput(expression));
+			assertEquals(evaluator.evaluateExpression(legacy), calculator.evaluate(expression), expression);
+		}
+	}
+	
+	@Test
+	void test_evaluate_with_malformed_expression() {
+		assertThrows(IllegalArgumentException.class, () -> calculator.evaluate("2 + (3 * 4"));
+		assertThrows(IllegalArgumentException.class, () -> calculator.evaluate("2 $ 3"));
+	}
+	
+	@Test
+	void test_cached_evaluate_with_malformed_expression_cold_and_warm() {
+		Calculator cold = new Calculator(64);
+		Calculator warm = new Calculator(64);
+		for (String expression : new String[] { "2+(3*4", "2$3", "12", "34+1", "1.5.5", "1e+5" }) {
+			try {
+				warm.evaluate(expression);
+			}
+			catch (IllegalArgumentException e) {
+				// Only valid expressions are cached
+			}
+		}
+		for (Calculator cached : new Calculator[] { cold, warm }) {
+			assertThrows(IllegalArgumentException.class, () -> cached.evaluate("2 + (3 * 4"));
+			assertThrows(IllegalArgumentException.class, () -> cached.evaluate("2 $ 3"));
+			assertEquals("Unexpected '2' at position 2", assertThrows(IllegalArgumentException.class, () -> cached.evaluate("1 2")).getMessage());
+			assertThrows(IllegalArgumentException.class, () -> cached.evaluate("3 4 + 1"));
+			assertThrows(IllegalArgumentException.class, () -> cached.evaluate("1.5 .5"));
+			assertThrows(IllegalArgumentException.class, () -> cached.evaluate("1e +5"));
+			assertThrows(IllegalArgumentException.class, () -> cached.compile("3 4"));
+			assertFalse(cached.tryEvaluate("1 2").isSuccess());
+			assertEquals(12, cached.evaluate(" 12 "));
+		}
+		assertEquals(3, warm.getCache().size());
+	}
+	
+	@Test
+	void test_whitespace_separates_numbers_instead_of_joining_them() {
+		// The legacy sanitizer removed whitespace first, so "1 2" used to evaluate to 12
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> calculator.evaluate("1 2"));
+		assertEquals("Unexpected '2' at position 2", e.getMessage());
+		assertThrows(IllegalArgumentException.class, () -> calculator.evaluate("3 4 + 1"));
+		assertThrows(IllegalArgumentException.class, () -> calculator.evaluate("1.5 .5"));
+		assertEquals(12, calculator.evaluate(" 12 "));
+	}
+	
+	
+	
+	// Test the compiled expression cache
+	
+	@Test
+	void test_cache_hits_for_repeated_expression_ignoring_whitespace() {
+		Calculator cachingCalculator = new Calculator(100);
+		assertEquals(5, cachingCalculator.evaluate("2 + 3"));
+		assertEquals(5, cachingCalculator.evaluate("2+3"));
+		assertSame(cachingCalculator.compile("2+3"), cachingCalculator.compile(" 2 +3 "));
+		assertEquals(3, cachingCalculator.getCache().getHitCount());
+		assertEquals(1, cachingCalculator.getCache().getMissCount());
+	}
+	
+	@Test
+	void test_cache_evicts_least_recently_used_entries() {
+		ExpressionCache cache = new ExpressionCache(1);
+		cache.put("1+1", calculator.compile("1+1"));
+		cache.put("2+2", calculator.compile("2+2"));
+		assertNull(cache.get("1+1"));
+		assertNotNull(cache.get("2+2"));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+	}
+	
+	@Test
+	void test_cache_stays_within_maximum_size_under_concurrent_use() throws InterruptedException {
+		Calculator cachingCalculator = new Calculator(64);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					assertEquals(i % 200 + 1, cachingCalculator.evaluate((i % 200) + "+1"));
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(cachingCalculator.getCache().size() <= 64);
+		assertEquals(16000, cachingCalculator.getCache().getHitCount() + cachingCalculator.getCache().getMissCount());
+	}
+	
+	@Test
+	void test_cache_hits_on_one_hot_key_from_many_threads() throws InterruptedException {
+		Calculator cachingCalculator = new Calculator(64);
+		CompiledExpression hot = cachingCalculator.compile("2^10 - 24");
+		Thread[] threads = new Thread[16];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 50000; i++) {
+					assertSame(hot, cachingCalculator.compile("2^10 - 24"));
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(800000, cachingCalculator.getCache().getHitCount());
+		assertEquals(1, cachingCalculator.getCache().getMissCount());
+		assertEquals(1000, cachingCalculator.evaluate("2^10-24"));
+	}
+	
+	@Test
+	void test_cache_keeps_recently_used_entries_when_evicting() {
+		// 128 entries make 64 segments of two; the keys have equal hash codes, so they share a segment
+		ExpressionCache cache = new ExpressionCache(128);
+		CompiledExpression compiled = calculator.compile("1");
+		cache.put("AaAa", compiled);
+		cache.put("BBBB", compiled);
+		assertNotNull(cache.get("AaAa"));
+		cache.put("AaBB", compiled);
+		assertNotNull(cache.get("AaAa"));
+		assertNull(cache.get("BBBB"));
+		assertNotNull(cache.get("AaBB"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+	}
+	
+	
+	
+	// Test batch evaluation
+	
+	@Test
+	void test_evaluateAll_returns_results_in_input_order() {
+		assertArrayEquals(new double[] {5, 24, 2}, calculator.evaluateAll(Arrays.asList("2+3", "4*6", "8^(1/3)")));
+	}
+	
+	@Test
+	void test_evaluateAll_with_large_batch_of_repeated_expressions() {
+		List<String> expressions = new ArrayList<String>();
+		for (int i = 0; i < 10000; i++) {
+			expressions.add((i % 37) + "*2");
+		}
+		double[] results = new double[expressions.size()];
+		calculator.evaluateAll(expressions, results);
+		for (int i = 0; i < results.length; i++) {
+			assertEquals((i % 37) * 2, results[i]);
+		}
+	}
 
+	@Test
+	void test_evaluateAll_with_mostly_distinct_expressions_sharing_hash_slots() {
+		List<String> expressions = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			expressions.add(i + "+1");
+			if (i % 100 == 0) {
+				expressions.add("0+1");
+			}
+		}
+		// "Aa" and "BB" have the same hash code
+		expressions.add("Aa+1");
+		expressions.add("BB+1");
+		int[] firstOccurrences = BatchEvaluator.findFirstOccurrences(expressions);
+		assertEquals(0, firstOccurrences[expressions.lastIndexOf("0+1")]);
+		assertEquals(expressions.size() - 1, firstOccurrences[expressions.size() - 1]);
+		double[] results = new double[expressions.size() - 2];
+		calculator.evaluateAll(expressions.subList(0, results.length), results);
+		for (int i = 0; i < results.length; i++) {
+			String expression = expressions.get(i);
+			assertEquals(Double.parseDouble(expression.substring(0, expression.length() - 2)) + 1, results[i]);
+		}
+	}
+	
+	@Test
+	void test_evaluateAll_with_too_small_result_array() {
+		assertThrows(IllegalArgumentException.class, () -> calculator.evaluateAll(Arrays.asList("1", "2"), new double[1]));
+	}
+	
+	
+	
+	// Test variables
+	
+	@Test
+	void test_compiled_expression_with_variables() {
+		CompiledExpression compiled = calculator.compile("x^2 + rate * x - 1");
+		assertEquals(Arrays.asList("x", "rate"), compiled.getVariableNames());
+		assertEquals(1, compiled.getVariableIndex("rate"));
+		assertEquals(14, compiled.evaluate(3, 2));
+		assertEquals(-1, compiled.evaluate(0, 5));
+	}
+	
+	@Test
+	void test_compiled_expression_with_declared_variable_order() {
+		CompiledExpression compiled = calculator.compile("a - b", "b", "a");
+		assertEquals(7, compiled.evaluate(3, 10));
+	}
+	
+	@Test
+	void test_compiled_expression_with_variable_under_fractional_exponent() {
+		assertEquals(3, calculator.compile("x^(1/2)").evaluate(9));
+	}
+	
+	@Test
+	void test_compiled_expression_with_missing_bindings() {
+		assertThrows(IllegalArgumentException.class, () -> calculator.compile("x + y").evaluate(1));
+		assertThrows(IllegalArgumentException.class, () -> calculator.compile("x + 1").evaluate());
+	}
+	
+	@Test
+	void test_compile_with_undeclared_variable() {
+		assertThrows(IllegalArgumentException.class, () -> calculator.compile("x + y", "x"));
+	}
+	
+	@Test
+	void test_evaluate_with_variable() {
+		assertThrows(IllegalArgumentException.class, () -> calculator.evaluate("x + 1"));
+	}
+	
+	@Test
+	void test_evaluate_with_variable_fails_the_same_with_and_without_cache() {
+		Calculator cachingCalculator = new Calculator(16);
+		for (Calculator each : new Calculator[] {new Calculator(), cachingCalculator}) {
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> each.evaluate("1 + x"));
+			assertEquals("Unknown variable 'x' at position 4", e.getMessage());
+			e = assertThrows(IllegalArgumentException.class, () -> each.evaluate("2 * (3 + "));
+			assertEquals("Unexpected end of expression", e.getMessage());
+		}
+		
+		// An entry compiled with variables is shared with compile but still rejected by evaluate
+		assertEquals(Arrays.asList("x"), cachingCalculator.compile("1+x").getVariableNames());
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> cachingCalculator.evaluate("1 + x"));
+		assertEquals("Unknown variable 'x' at position 4", e.getMessage());
+		assertEquals(3, cachingCalculator.evaluate("1 + 2"));
+	}
+	
+	
+	
+	// Test the bytecode backend
+	
+	@Test
+	void test_bytecode_compiled_expression_matches_interpreter() {
+		CompiledExpression compiled = calculator.compile("((-1.5^(-0.5)) - (2.75 / x)) / ((3.25 - (4.5^(-0.75))) + (-5.75 / 0.75)) + x^(1/3) * 300 - 1");
+		CompiledExpression generated = compiled.compileToBytecode();
+		assertTrue(generated.isBytecodeCompiled());
+		assertFalse(compiled.isBytecodeCompiled());
+		for (double x = 0.25; x < 100; x += 7.5) {
+			assertEquals(compiled.evaluate(x), generated.evaluate(x));
+		}
+	}
+	
+	@Test
+	void test_bytecode_compiled_expression_with_many_variables_and_constants() {
+		StringBuilder expression = new StringBuilder("0");
+		double[] bindings = new double[300];
+		for (int i = 0; i < bindings.length; i++) {
+			expression.append("+v").append(i).append("*").append(i + 0.5);
+			bindings[i] = i;
+		}
+		CompiledExpression compiled = calculator.compile(expression.toString());
+		assertEquals(compiled.evaluate(bindings), compiled.compileToBytecode().evaluate(bindings));
+	}
+	
+	@Test
+	void test_bytecode_compiler_falls_back_for_oversized_expressions() {
+		StringBuilder expression = new StringBuilder("0");
+		for (int group = 0; group < 100; group++) {
+			expression.append("+(0");
+			for (int i = 0; i < 90; i++) {
+				expression.append("+").append(group).append(i).append(".5*x");
+			}
+			expression.append(")");
+		}
+		CompiledExpression compiled = calculator.compile(expression.toString());
+		assertSame(compiled, compiled.compileToBytecode());
+	}
+	
+	@Test
+	void test_bytecode_compiler_falls_back_for_deeply_nested_expressions() {
+		StringBuilder expression = new StringBuilder("1");
+		for (int i = 0; i < 2000; i++) {
+			expression.append("+1");
+		}
+		CompiledExpression compiled = calculator.compile(expression.toString());
+		assertSame(compiled, compiled.compileToBytecode());
+	}
+	
+	
+	
+	// Test the stack-safe evaluation mode
+	
+	@Test
+	void test_stack_safe_mode_with_100k_deep_parentheses() {
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			expression.append('(');
+		}
+		expression.append("1+2");
+		for (int i = 0; i < 100000; i++) {
+			expression.append(")*1");
+		}
+		assertEquals(3, new Calculator(EvaluationMode.STACK_SAFE).evaluate(expression.toString()));
+	}
+	
+	@Test
+	void test_stack_safe_mode_with_very_long_expression() {
+		StringBuilder expression = new StringBuilder("0");
+		for (int i = 0; i < 500000; i++) {
+			expression.append(" + 2 - 1");
+		}
+		assertEquals(500000, new Calculator(EvaluationMode.STACK_SAFE).evaluate(expression.toString()));
+	}
+	
+	@Test
+	void test_stack_safe_mode_with_deeply_nested_negative_signs() {
+		StringBuilder expression = new StringBuilder("1");
+		for (int i = 0; i < 100001; i++) {
+			expression.append("*-(1");
+		}
+		for (int i = 0; i < 100001; i++) {
+			expression.append(")");
+		}
+		assertEquals(-1, new Calculator(EvaluationMode.STACK_SAFE).compile(expression.toString()).evaluate());
+	}
+	
+	@Test
+	void test_stack_safe_mode_matches_recursive_mode() {
+		Calculator stackSafeCalculator = new Calculator(EvaluationMode.STACK_SAFE);
+		String[] expressions = {"((-1.5^(-0.5)) - (2.75 / 0.25)) / ((3.25 - (4.5^(-0.75))) + (-5.75 / 0.75))", "-4^(-3/2)", "2*-3^2", "8^(2/3+1/3)"};
+		for (String expression : expressions) {
+			assertEquals(calculator.evaluate(expression), stackSafeCalculator.evaluate(expression), expression);
+		}
+		assertEquals(EvaluationMode.STACK_SAFE, stackSafeCalculator.compile("x^(1/2)").getEvaluationMode());
+		assertEquals(3, stackSafeCalculator.compile("x^(1/2)").evaluate(9));
+	}
+	
+	
+	
+	// Test integer power by squaring
+	
+	@Test
+	void test_power_method_with_a_large_integer_exponent() {
+		assertEquals(Math.pow(1.0000001, 1000000), powerCalculator.power(1.0000001, 1000000), 1e-9);
+	}
+	
+	@Test
+	void test_power_method_with_an_odd_exponent_and_negative_base() {
+		assertEquals(-2187, powerCalculator.power(-3, 7));
+	}
+	
+	@Test
+	void test_power_method_with_minimum_integer_exponent() {
+		assertEquals(1.0, powerCalculator.power(1.0, Integer.MIN_VALUE));
+		assertEquals(0.0, powerCalculator.power(2.0, Integer.MIN_VALUE));
+	}
+	
+	
+	
+	// Test the shared smallest prime factor table
+	
+	@Test
+	void test_isPrime_matches_recursive_helper() {
+		for (int number = -5; number < 3000; number++) {
+			assertEquals(powerCalculator.isPrimeHelper(number, 2), powerCalculator.isPrime(number), "isPrime(" + number + ")");
+		}
+	}
+	
+	@Test
+	void test_findSmallestDivisor_matches_recursive_helper() {
+		for (int number = 2; number < 3000; number++) {
+			assertEquals(powerCalculator.findSmallestDivisorHelper(number, 2), powerCalculator.findSmallestDivisor(number));
+		}
+	}
+	
+	@Test
+	void test_findSmallestDivisor_beyond_table_limit() {
+		assertEquals(46337, powerCalculator.findSmallestDivisor(46337 * 46337));
+		assertEquals(2147483647, powerCalculator.findSmallestDivisor(Integer.MAX_VALUE));
+	}
+	
+	@Test
+	void test_smallest_prime_factor_table_reports_memory() {
+		SmallestPrimeFactorTable table = SmallestPrimeFactorTable.shared();
+		assertEquals(17, table.smallestPrimeFactor(7531));
+		assertTrue(table.getLimit() >= 10000);
+		assertEquals(16L + 4L * (table.getLimit() + 1), table.getMemoryFootprintBytes());
+	}
+	
+	
+	
+	// Test exponent classification
+	
+	@Test
+	void test_power_with_literal_exponents_is_classified_at_parse_time() {
+		assertTrue(calculator.compile("x^-3").getRoot() instanceof IntegerPowerNode);
+		assertTrue(calculator.compile("x^0.7531").getRoot() instanceof DecimalPowerNode);
+		assertTrue(calculator.compile("x^(2/3)").getRoot() instanceof FractionalPowerNode);
+		assertTrue(calculator.compile("x^(1.5*2)").getRoot() instanceof BinaryOperationNode);
+	}
+	
+	@Test
+	void test_power_with_parenthesised_signed_literal_exponent_is_classified_at_parse_time() {
+		assertTrue(calculator.compile("x^(-3)").getRoot() instanceof IntegerPowerNode);
+		assertEquals(-3, ((IntegerPowerNode) calculator.compile("x^(-3)").getRoot()).getExponent());
+		assertTrue(calculator.compile("x^( + 2)").getRoot() instanceof IntegerPowerNode);
+		assertTrue(calculator.compile("x^(-0.75)").getRoot() instanceof DecimalPowerNode);
+		assertTrue(calculator.compile("x^(-3*y)").getRoot() instanceof BinaryOperationNode);
+		assertEquals(0.125, calculator.evaluate("2^(-3)"));
+		assertEquals(calculator.evaluate("2^-3"), calculator.evaluate("2^(-3)"));
+		assertEquals(calculator.evaluate("16^-0.75"), calculator.evaluate("16^(-0.75)"));
+	}
+	
+	@Test
+	void test_decimal_exponent_matches_power_method() {
+		assertEquals(powerCalculator.power(3.7, 0.7531), calculator.evaluate("3.7^0.7531"));
+		assertEquals(powerCalculator.power(3.7, -0.25), calculator.compile("x^-0.25").evaluate(3.7));
+	}
+	
+	@Test
+	void test_isFractionalString_method() {
+		assertTrue(powerCalculator.isFractionalString("(-2/3)"));
+		assertFalse(powerCalculator.isFractionalString("(2.5/3)"));
+		assertFalse(powerCalculator.isFractionalString("(1/2+2/2)"));
+		assertFalse(powerCalculator.isFractionalString("2/3"));
+	}
+	
+	
+	
+	// Test nth root solver
+	@Test
+	void test_nth_root_of_large_numbers() {
+		PowerCalculator powerCalculator = new PowerCalculator(new NthRootSolver(1e-15, 100));
+		assertEquals(1000000.0, powerCalculator.power(1e18, 1, 3));
+		assertEquals(100000.0, powerCalculator.power(1e10, 1, 2));
+		assertEquals(-3.0, powerCalculator.power(-27, 1, 3));
+	}
+	
+	@Test
+	void test_nth_root_of_negative_number_with_even_degree_is_NaN() {
+		PowerCalculator powerCalculator = new PowerCalculator();
+		assertTrue(Double.isNaN(powerCalculator.power(-16, 1, 2)));
+	}
+	
+	@Test
+	void test_nth_root_solver_records_convergence() {
+		NthRootSolver solver = new NthRootSolver(1e-15, 100);
+		PowerCalculator powerCalculator = new PowerCalculator(solver);
+		assertEquals(2.0, powerCalculator.power(8, 1, 3));
+		assertEquals(1, solver.getRootCount());
+		assertTrue(solver.getIterationCount() > 0);
+		assertTrue(solver.getMostIterations() < 10);
+		assertEquals(0, solver.getIterationCapCount());
+		solver.resetStatistics();
+		assertEquals(0, solver.getRootCount());
+	}
+	
+	@Test
+	void test_nth_root_solver_stops_at_iteration_cap() {
+		NthRootSolver solver = new NthRootSolver(0, 1);
+		PowerCalculator powerCalculator = new PowerCalculator(solver);
+		powerCalculator.power(1e12, 1, 7);
+		assertEquals(1, solver.getIterationCapCount());
+		assertEquals(1, solver.getMostIterations());
+		assertThrows(IllegalArgumentException.class, () -> new NthRootSolver(1e-15, 0));
+	}
+	
+	@Test
+	void test_nth_root_with_large_degree() {
+		NthRootSolver solver = new NthRootSolver(1e-15, 100);
+		PowerCalculator powerCalculator = new PowerCalculator(solver);
+		assertEquals(Math.pow(1e300, 1.0 / 2000), solver.solve(powerCalculator, 1e300, 2000), 1e-15);
+		assertEquals(Math.pow(1e-300, 1.0 / 5001), solver.solve(powerCalculator, 1e-300, 5001), 1e-15);
+		assertEquals(-Math.pow(1e300, 1.0 / 99999), solver.solve(powerCalculator, -1e300, 99999), 1e-15);
+		assertEquals(0, solver.getIterationCapCount());
+		assertTrue(solver.getMostIterations() < 5);
+	}
+	
+	@Test
+	void test_nth_root_solver_returns_NaN_when_capped() {
+		NthRootSolver solver = new NthRootSolver(0, 1);
+		assertTrue(Double.isNaN(solver.solve(new PowerCalculator(solver), 1e12, 7)));
+		assertEquals(1, solver.getIterationCapCount());
+	}
+	
+	
+	
+	// Test streaming evaluation
+	@Test
+	void test_streaming_evaluator_writes_one_result_per_line_in_order() throws Exception {
+		StringBuilder input = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			input.append(i).append("*2+1\n");
+			expected.append((double) (i * 2 + 1)).append('\n');
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		StreamingEvaluator evaluator = new StreamingEvaluator(new Calculator(), 4, 64);
+		long lines = evaluator.evaluate(Channels.newChannel(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.US_ASCII))), Channels.newChannel(output));
+		assertEquals(5000, lines);
+		assertEquals(expected.toString(), output.toString(StandardCharsets.US_ASCII));
+	}
+	
+	@Test
+	void test_streaming_evaluator_handles_errors_long_lines_and_missing_newline() throws Exception {
+		String longLine = "1" + "+1".repeat(100);
+		String input = "2^3\r\n1+\n" + longLine + "\n\n8^(1/3)";
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		StreamingEvaluator evaluator = new StreamingEvaluator(new Calculator(EvaluationMode.STACK_SAFE), 2, 8);
+		evaluator.evaluate(Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII))), Channels.newChannel(output));
+		assertEquals("8.0\nError: Unexpected end of expression\n101.0\n0.0\n2.0\n", output.toString(StandardCharsets.US_ASCII));
+	}
+	
+	@Test
+	void test_streaming_evaluator_writes_non_ascii_error_messages_as_utf8() throws Exception {
+		String input = "2\u00e93\n1+1\n";
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		StreamingEvaluator evaluator = new StreamingEvaluator(new Calculator(), 2, 8);
+		evaluator.evaluate(Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1))), Channels.newChannel(output));
+		String message = calculator.tryEvaluate("2\u00e93").getMessage();
+		assertTrue(message.contains("\u00e9"));
+		assertArrayEquals(("Error: " + message + "\n2.0\n").getBytes(StandardCharsets.UTF_8), output.toByteArray());
+	}
+	
+	@Test
+	void test_command_line_evaluates_file_to_file() throws Exception {
+		Path input = Files.createTempFile("expressions", ".txt");
+		Path output = Files.createTempFile("results", ".txt");
+		try {
+			Files.write(input, Arrays.asList("1+1", "(2+3)*4"));
+			ByteArrayOutputStream errors = new ByteArrayOutputStream();
+			assertEquals(0, CalculatorCommandLine.run(new String[] {"--threads", "2", input.toString(), output.toString()}, new PrintStream(errors)));
+			assertEquals(Arrays.asList("2.0", "20.0"), Files.readAllLines(output));
+			assertEquals(2, CalculatorCommandLine.run(new String[] {"--threads"}, new PrintStream(errors)));
+		}
+		finally {
+			Files.delete(input);
+			Files.delete(output);
+		}
+	}
+	
+	
+	
+	// Test expression simplification
+	@Test
+	void test_simplify_folds_constant_subtrees() {
+		CompiledExpression compiled = calculator.compile("2*3+x^(1/2)*(4-1)");
+		CompiledExpression simplified = compiled.simplify();
+		assertEquals(4, simplified.getRemovedNodeCount());
+		assertEquals(0, compiled.getRemovedNodeCount());
+		assertEquals(compiled.evaluate(16), simplified.evaluate(16));
+		assertEquals(18.0, simplified.evaluate(16));
+	}
+	
+	@Test
+	void test_simplify_removes_identities() {
+		assertEquals(4, calculator.compile("x*1+0").simplify().getRemovedNodeCount());
+		assertEquals(6, calculator.compile("1*x/1-0").simplify().getRemovedNodeCount());
+		assertEquals(1, calculator.compile("x^1").simplify().getRemovedNodeCount());
+		assertEquals(1.0, calculator.compile("x^0").simplify().evaluate(Double.NaN));
+		assertEquals(4, calculator.compile("x^(3-2)").simplify().getRemovedNodeCount());
+		assertEquals(2, calculator.compile("x*(-2)").simplify().getRemovedNodeCount());
+		CompiledExpression unchanged = calculator.compile("x*y");
+		assertSame(unchanged, unchanged.simplify());
+	}
+	
+	@Test
+	void test_simplified_expression_matches_original() {
+		String[] expressions = {"(x+0)^(1/3)*2^(1/2)", "x^(0.5+1)-(2^3)/y", "+x*(-(1+2))^2", "y^(x-x+2)+1.5^2.5*x", "(0-3)*x+y^(2/3)"};
+		double[][] bindings = {{8, 2}, {2.5, -3}, {0.25, 7}};
+		for (String expression : expressions) {
+			CompiledExpression compiled = calculator.compile(expression, "x", "y");
+			CompiledExpression simplified = compiled.simplify();
+			for (double[] values : bindings) {
+				assertEquals(compiled.evaluate(values), simplified.evaluate(values), expression);
+			}
+		}
+	}
+	
+	@Test
+	void test_simplify_keeps_mode_and_handles_deep_trees() {
+		StringBuilder expression = new StringBuilder("x");
+		for (int i = 0; i < 100000; i++) {
+			expression.append("+(1*2-2)");
+		}
+		CompiledExpression simplified = new Calculator(EvaluationMode.STACK_SAFE).compile(expression.toString()).simplify();
+		assertEquals(EvaluationMode.STACK_SAFE, simplified.getEvaluationMode());
+		assertEquals(3.5, simplified.evaluate(3.5));
+		assertEquals(600000, simplified.getRemovedNodeCount());
+		assertTrue(calculator.compile("2*x+1").compileToBytecode().simplify().isBytecodeCompiled());
+	}
+	
+	
+	
+	// Test columnar evaluation
+	@Test
+	void test_columnar_evaluation_matches_row_by_row() {
+		CompiledExpression compiled = calculator.compile("x*y-(x+2)/y+x^2+y^(1/3)+x^0.5-y^x", "x", "y");
+		int rows = 2500;
+		double[][] columns = new double[2][rows];
+		for (int row = 0; row < rows; row++) {
+			columns[0][row] = row * 0.25;
+			columns[1][row] = row % 17 + 1;
+		}
+		double[] out = new double[rows];
+		compiled.evaluate(columns, out);
+		for (int row = 0; row < rows; row++) {
+			assertEquals(compiled.evaluate(columns[0][row], columns[1][row]), out[row]);
+		}
+	}
+	
+	@Test
+	void test_columnar_evaluation_of_constants_and_stack_safe_mode() {
+		double[] out = new double[3];
+		calculator.compile("2^3+1").evaluate(new double[0][], out);
+		assertArrayEquals(new double[] {9, 9, 9}, out);
+		new Calculator(EvaluationMode.STACK_SAFE).compile("a-b").evaluate(new double[][] {{5, 6, 7}, {1, 2, 3}}, out);
+		assertArrayEquals(new double[] {4, 4, 4}, out);
+	}
+	
+	@Test
+	void test_columnar_evaluation_rejects_missing_columns() {
+		CompiledExpression compiled = calculator.compile("x+y");
+		assertThrows(IllegalArgumentException.class, () -> compiled.evaluate(new double[][] {{1}}, new double[1]));
+		assertThrows(IllegalArgumentException.class, () -> compiled.evaluate(new double[][] {{1, 2}, {1}}, new double[2]));
+	}
+	
+	
+	
+	// Test calculator metrics
+	@Test
+	void test_metrics_record_stages_and_counters() {
+		CalculatorMetrics metrics = CalculatorMetrics.get();
+		metrics.setEnabled(true);
+		metrics.reset();
+		try {
+			calculator.evaluate("2+8^(1/3)*3+4^0.5");
+			new Calculator(4, EvaluationMode.STACK_SAFE).evaluate("1+2");
+			experssionsanitizer.sanitizeInput("1 + 2");
+			parenthesisAdder.addParentheses("3*-2");
+			operatorFinder.findLastOperatorIndex("1+2*3", 4, 0, '+', '-');
+			assertEquals(2, metrics.getParseStatistics().getCount());
+			assertEquals(2, metrics.getEvaluateStatistics().getCount());
+			assertEquals(1, metrics.getSanitizeStatistics().getCount());
+			assertEquals(1, metrics.getParenthesizeStatistics().getCount());
+			assertEquals(2, metrics.getNthRootCount());
+			assertTrue(metrics.getNthRootIterationCount() > 0);
+			assertTrue(metrics.getPrimeCheckCount() > 0);
+			assertEquals(4, metrics.getOperatorScanLength());
+			StageStatistics parse = metrics.getParseStatistics();
+			assertEquals(2, Arrays.stream(parse.getHistogram()).sum());
+			assertTrue(parse.percentileNanos(50) >= 1);
+			assertTrue(parse.getMaximumNanos() <= parse.getTotalNanos());
+		}
+		finally {
+			metrics.setEnabled(false);
+			metrics.reset();
+		}
+	}
+	
+	@Test
+	void test_metrics_are_idle_when_disabled_and_published_over_jmx() throws Exception {
+		CalculatorMetrics metrics = CalculatorMetrics.get();
+		metrics.reset();
+		calculator.evaluate("1+2");
+		assertEquals(0, metrics.getParseStatistics().getCount());
+		CalculatorMetrics.register();
+		CalculatorMetrics.register();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(CalculatorMetrics.OBJECT_NAME);
+		assertEquals(Boolean.FALSE, server.getAttribute(name, "Enabled"));
+		assertTrue(server.getAttribute(name, "ParseStatistics") instanceof CompositeData);
+	}
+	
+	
+	
+	// Test flight recorder events
+	@Test
+	void test_flight_recorder_events_are_reported_when_enabled() throws Exception {
+		Path file = Files.createTempFile("calculator", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("com.fdmgroup.tdd.Calculator.Parse");
+			recording.enable("com.fdmgroup.tdd.Calculator.Evaluate");
+			recording.enable("com.fdmgroup.tdd.Calculator.FractionalPower");
+			recording.enable("com.fdmgroup.tdd.Calculator.NthRoot");
+			recording.start();
+			calculator.evaluate("1+8^(2/3)");
+			recording.stop();
+			recording.dump(file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			RecordedEvent parse = events.stream().filter(e -> e.getEventType().getName().endsWith(".Parse")).findFirst().get();
+			assertEquals(9, parse.getInt("expressionLength"));
+			assertEquals(4, parse.getInt("nodeCount"));
+			RecordedEvent evaluate = events.stream().filter(e -> e.getEventType().getName().endsWith(".Evaluate")).findFirst().get();
+			assertEquals("RECURSIVE", evaluate.getString("evaluationMode"));
+			RecordedEvent power = events.stream().filter(e -> e.getEventType().getName().endsWith(".FractionalPower")).findFirst().get();
+			assertEquals("RATIONAL", power.getString("exponentKind"));
+			assertEquals(3, power.getInt("denominator"));
+			RecordedEvent root = events.stream().filter(e -> e.getEventType().getName().endsWith(".NthRoot")).findFirst().get();
+			assertEquals(3, root.getInt("degree"));
+			assertTrue(root.getInt("iterations") > 0);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	void test_flight_recorder_events_are_disabled_by_default() {
+		assertFalse(EventType.getEventType(ParseEvent.class).isEnabled());
+		assertFalse(EventType.getEventType(NthRootEvent.class).isEnabled());
+	}
+	
+	
+	
+	// Test allocation-free evaluation
+	/**
+	 * Runs the allocation measurements in a fresh JVM. Tests that record Flight Recorder events leave profiles
+	 * in which the events are committed, and code compiled from those profiles keeps the event allocations.
+	 */
+	static class AllocationProbe {
+		
+		public static void main(String[] args) {
+			EvaluationContext context = EvaluationContext.current();
+			double[] bindings = {2.5, 3};
+			String expression = "x*y-(x+2)/y^2+x^(1/3)+y^0.5-x^y";
+			CompiledExpression recursive = new Calculator().compile(expression, "x", "y");
+			CompiledExpression stackSafe = new Calculator(EvaluationMode.STACK_SAFE).compile(expression, "x", "y");
+			Calculator cached = new Calculator(16, EvaluationMode.STACK_SAFE);
+			System.out.println(steadyStateAllocatedBytes(() -> recursive.evaluate(bindings, context)));
+			System.out.println(steadyStateAllocatedBytes(() -> stackSafe.evaluate(bindings, context)));
+			System.out.println(steadyStateAllocatedBytes(() -> cached.evaluate("2*(3+4)^2-8^(2/3)")));
+		}
+		
+		/**
+		 * Measures the bytes allocated by the evaluation, repeating the measurement while the JIT is still compiling it.
+		 */
+		private static long steadyStateAllocatedBytes(Runnable evaluation) {
+			com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			long threadId = Thread.currentThread().getId();
+			long allocated = Long.MAX_VALUE;
+			for (int round = 0; round < 50 && allocated > 0; round++) {
+				long before = threadBean.getThreadAllocatedBytes(threadId);
+				for (int i = 0; i < 10000; i++) {
+					evaluation.run();
+				}
+				allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+			}
+			return allocated;
+		}
+	}
+	
+	@Test
+	void test_reused_compiled_expressions_allocate_nothing() throws Exception {
+		String classPath = Paths.get(CompiledExpression.class.getProtectionDomain().getCodeSource().getLocation().toURI()) 
+				+ File.pathSeparator + Paths.get(AllocationProbe.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), 
+				"-cp", classPath, AllocationProbe.class.getName()).redirectErrorStream(true).start();
+		List<String> output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).lines().collect(Collectors.toList());
+		assertEquals(0, process.waitFor(), String.join("\n", output));
+		assertEquals(Arrays.asList("0", "0", "0"), output);
+	}
+	
+	@Test
+	void test_operator_finder_checks_every_operator() {
+		assertEquals(3, operatorFinder.findLastOperatorIndex("1*2/3", 4, 0, '+', '-', '*', '/'));
+		assertEquals(-1, operatorFinder.findLastOperatorIndex("(1+2)", 4, 0, '+', '-'));
+	}
+	
+	
+	
+	// Test calculator server
+	@Test
+	void test_server_answers_pipelined_requests_in_order() throws Exception {
+		try (CalculatorServer server = new CalculatorServer(new Calculator(64), 0).start();
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			StringBuilder requests = new StringBuilder();
+			for (int i = 0; i < 1000; i++) {
+				requests.append(i).append("*2+1\n");
+			}
+			requests.append("1+\n");
+			OutputStream output = socket.getOutputStream();
+			output.write(requests.toString().getBytes(StandardCharsets.UTF_8));
+			output.flush();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(Double.toString(i * 2 + 1), reader.readLine());
+			}
+			assertEquals("ERROR Unexpected end of expression", reader.readLine());
+		}
+	}
+	
+	@Test
+	void test_server_handles_concurrent_connections() throws Exception {
+		try (CalculatorServer server = new CalculatorServer(new Calculator(64), 0).start()) {
+			assertEquals(Runtime.version().feature() >= 21, server.usesVirtualThreads());
+			List<Thread> clients = new ArrayList<>();
+			List<String> failures = Collections.synchronizedList(new ArrayList<>());
+			for (int c = 0; c < 8; c++) {
+				int client = c;
+				Thread thread = new Thread(() -> {
+					try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+						BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+						BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+						for (int i = 0; i < 100; i++) {
+							writer.write(client + "+" + i + "\n");
+							writer.flush();
+							String response = reader.readLine();
+							if (!Double.toString(client + i).equals(response)) {
+								failures.add(client + "+" + i + " gave " + response);
+							}
+						}
+					}
+					catch (IOException e) {
+						failures.add(e.toString());
+					}
+				});
+				clients.add(thread);
+				thread.start();
+			}
+			for (Thread thread : clients) {
+				thread.join();
+			}
+			assertEquals(Collections.emptyList(), failures);
+		}
+	}
+	
+	@Test
+	void test_server_rejects_overlong_lines_and_accepts_any_line_terminator() throws Exception {
+		try (CalculatorServer server = new CalculatorServer(new Calculator(), 0, 16).start();
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			OutputStream output = socket.getOutputStream();
+			String requests = "1+1\r\n" + "1+".repeat(100000) + "1\n" + "2*3\r" + "16 characters..\n" + "0123456789+12345\n";
+			output.write(requests.getBytes(StandardCharsets.UTF_8));
+			output.flush();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			assertEquals("2.0", reader.readLine());
+			assertEquals("ERROR Request line longer than 16 characters", reader.readLine());
+			assertEquals("6.0", reader.readLine());
+			assertTrue(reader.readLine().startsWith("ERROR Unexpected"));
+			assertEquals("1.23469134E8", reader.readLine());
+
+			// A request sent on its own after a "\r" is answered without waiting for more input
+			output.write("7-2\r".getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			assertEquals("5.0", reader.readLine());
+		}
+		assertThrows(IllegalArgumentException.class, () -> new CalculatorServer(new Calculator(), 0, 0));
+	}
+	
+	
+	
+	// Test binary batch codec
+	@Test
+	void test_batch_codec_evaluates_expression_frames() {
+		ByteBuffer request = ByteBuffer.allocateDirect(256);
+		BatchCodec.encodeExpressions(Arrays.asList("1+2", "2^3*4", "1+", "10/4"), request);
+		request.flip();
+		assertTrue(BatchCodec.hasFrame(request));
+
+		ByteBuffer response = ByteBuffer.allocate(BatchCodec.responseSize(4));
+		BatchCodec codec = new BatchCodec(new Calculator());
+		assertEquals(4, codec.evaluate(request, response));
+		assertFalse(request.hasRemaining());
+		response.flip();
+
+		assertEquals(1, BatchCodec.failureCount(response));
+		double[] results = new double[4];
+		assertEquals(4, BatchCodec.decodeResults(response, results));
+		assertArrayEquals(new double[] { 3, 32, Double.NaN, 2.5 }, results);
+	}
+	
+	@Test
+	void test_batch_codec_evaluates_binding_frames() {
+		Calculator calculator = new Calculator(16);
+		BatchCodec codec = new BatchCodec(calculator);
+		int id = codec.register(calculator.compile("x*y+1", "x", "y"));
+
+		double[][] columns = { { 1, 2, 3 }, { 10, 20, 30 } };
+		ByteBuffer request = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+		BatchCodec.encodeBindings(id, columns, 3, request);
+		BatchCodec.encodeBindings(id, columns, 2, request);
+		request.flip();
+
+		ByteBuffer response = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+		codec.evaluate(request, response);
+		codec.evaluate(request, response);
+		response.flip();
+
+		double[] results = new double[3];
+		assertEquals(3, BatchCodec.decodeResults(response, results));
+		assertArrayEquals(new double[] { 11, 41, 91 }, results);
+		assertEquals(2, BatchCodec.decodeResults(response, results));
+		assertArrayEquals(new double[] { 11, 41, 91 }, results);
+		assertFalse(response.hasRemaining());
+	}
+	
+	@Test
+	void test_batch_codec_rejects_incomplete_and_unknown_frames() {
+		BatchCodec codec = new BatchCodec(new Calculator());
+		ByteBuffer request = ByteBuffer.allocate(64);
+		BatchCodec.encodeExpressions(Arrays.asList("1+1"), request);
+		request.flip().limit(request.limit() - 1);
+		assertFalse(BatchCodec.hasFrame(request));
+		assertThrows(BufferUnderflowException.class, () -> codec.evaluate(request, ByteBuffer.allocate(64)));
+
+		ByteBuffer unknown = ByteBuffer.allocate(64);
+		BatchCodec.encodeBindings(7, new double[0][], 0, unknown);
+		unknown.flip();
+		assertThrows(IllegalArgumentException.class, () -> codec.evaluate(unknown, ByteBuffer.allocate(64)));
+	}
+	
+	@Test
+	void test_batch_codec_rejects_oversized_counts_and_skips_the_bad_frame() {
+		BatchCodec codec = new BatchCodec(new Calculator());
+		int id = codec.register(new Calculator().compile("x + y"));
+		ByteBuffer request = ByteBuffer.allocate(256);
+		// An expression count far beyond the frame
+		request.putInt(5).put(BatchCodec.EXPRESSIONS).putInt(Integer.MAX_VALUE);
+		// An expression length running into the next frame
+		request.putInt(12).put(BatchCodec.EXPRESSIONS).putInt(1).putInt(100).put((byte) '1').put((byte) '+').put((byte) '2');
+		// A truncated count
+		request.putInt(3).put(BatchCodec.EXPRESSIONS).put((byte) 0).put((byte) 0);
+		// Huge and negative binding dimensions
+		request.putInt(13).put(BatchCodec.BINDINGS).putInt(id).putInt(1 << 30).putInt(1 << 30);
+		request.putInt(13).put(BatchCodec.BINDINGS).putInt(id).putInt(-1).putInt(2);
+		// Too few columns for the expression
+		request.putInt(21).put(BatchCodec.BINDINGS).putInt(id).putInt(1).putInt(1).putDouble(1);
+		BatchCodec.encodeExpressions(Arrays.asList("6*7"), request);
+		request.flip();
+
+		ByteBuffer response = ByteBuffer.allocate(64);
+		for (int i = 0; i < 6; i++) {
+			assertThrows(IllegalArgumentException.class, () -> codec.evaluate(request, response));
+		}
+		assertEquals(0, response.position());
+		assertEquals(1, codec.evaluate(request, response));
+		assertFalse(request.hasRemaining());
+		response.flip();
+		double[] results = new double[1];
+		BatchCodec.decodeResults(response, results);
+		assertEquals(42, results[0]);
+	}
+	
+	@Test
+	void test_batch_codec_bounds_row_count_without_columns_by_response_space() {
+		BatchCodec codec = new BatchCodec(new Calculator());
+		int id = codec.register(new Calculator().compile("1+1"));
+		ByteBuffer request = ByteBuffer.allocate(64);
+		BatchCodec.encodeBindings(id, new double[0][], Integer.MAX_VALUE, request);
+		BatchCodec.encodeBindings(id, new double[0][], 2, request);
+		request.flip();
+		ByteBuffer response = ByteBuffer.allocate(64);
+		assertThrows(IllegalArgumentException.class, () -> codec.evaluate(request, response));
+		assertEquals(2, codec.evaluate(request, response));
+		
+		ByteBuffer negative = ByteBuffer.allocate(8).putInt(-4).putInt(0);
+		negative.flip();
+		assertThrows(IllegalArgumentException.class, () -> codec.evaluate(negative, response));
+		assertEquals(4, negative.position());
+	}
+	
+	
+	
+	// Test workbook recalculation
+	@Test
+	void test_workbook_recalculates_only_downstream_formulas() {
+		Workbook workbook = new Workbook(new Calculator(16));
+		workbook.setInput("a", 1);
+		workbook.setInput("b", 2);
+		workbook.setInput("c", 10);
+		workbook.define("total", "a+b");
+		workbook.define("scaled", "total*c");
+		workbook.define("other", "c/2");
+		assertEquals(3, workbook.recalculate());
+		assertEquals(30, workbook.get("scaled"));
+
+		workbook.setInput("a", 4);
+		assertEquals(2, workbook.recalculate());
+		assertEquals(60, workbook.get("scaled"));
+		assertEquals(5, workbook.get("other"));
+		assertEquals(0, workbook.recalculate());
+
+		workbook.define("total", "a-b");
+		assertEquals(20, workbook.get("scaled"));
+		assertEquals(Arrays.asList("scaled"), workbook.getDependents("total"));
+	}
+	
+	@Test
+	void test_workbook_rejects_cycles() {
+		Workbook workbook = new Workbook(new Calculator());
+		workbook.define("x", "y+1");
+		workbook.define("y", "z*2");
+		assertThrows(IllegalArgumentException.class, () -> workbook.define("z", "x-1"));
+		assertThrows(IllegalArgumentException.class, () -> workbook.define("w", "w+1"));
+		assertTrue(Double.isNaN(workbook.get("x")));
+		workbook.setInput("z", 3);
+		assertEquals(7, workbook.get("x"));
+	}
+	
+	@Test
+	void test_workbook_evaluates_wide_levels_in_parallel() {
+		Workbook workbook = new Workbook(new Calculator(16));
+		workbook.setInput("base", 1);
+		int width = Workbook.PARALLEL_THRESHOLD * 4;
+		StringBuilder sum = new StringBuilder("0");
+		for (int i = 0; i < width; i++) {
+			workbook.define("cell" + i, "base*" + i);
+			sum.append("+cell").append(i);
+		}
+		workbook.define("sum", sum.toString());
+		assertEquals(width + 1, workbook.recalculate());
+		assertEquals(width * (width - 1) / 2.0, workbook.get("sum"));
+
+		workbook.setInput("base", 2);
+		assertEquals(width * (width - 1.0), workbook.get("sum"));
+	}
+	
+	
+	
+	// Test parallel evaluation of large expressions
+	@Test
+	void test_parallel_evaluation_matches_sequential_result() {
+		StringBuilder sum = new StringBuilder("x");
+		for (int i = 1; i < 50000; i++) {
+			sum.append(i % 3 == 0 ? '-' : '+').append(i % 7).append('^').append("0.5*x");
+		}
+		String expression = "(" + sum + ")/(" + sum + "+1)^(1/3)";
+		CompiledExpression compiled = new Calculator(EvaluationMode.STACK_SAFE).compile(expression, "x");
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertFalse(ParallelTreeEvaluator.plan(new ExpressionParser().parse("1+2")).isParallel());
+			assertTrue(ParallelTreeEvaluator.plan(new ExpressionParser(Arrays.asList("x"), false).parse(expression)).isParallel());
+			assertEquals(compiled.evaluate(1.5), compiled.evaluateInParallel(pool, 1.5));
+			assertEquals(compiled.evaluate(-2), compiled.evaluateInParallel(pool, -2));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	void test_parallel_evaluation_handles_deep_nesting() {
+		int depth = 200000;
+		String expression = "1+(".repeat(depth) + "1" + ")".repeat(depth);
+		CompiledExpression compiled = new Calculator(EvaluationMode.STACK_SAFE).compile(expression);
+		assertEquals(depth + 1, compiled.evaluateInParallel(ForkJoinPool.commonPool()));
+	}
+	
+	
+	
+	// Test reassociation of long operator chains
+	@Test
+	void test_reassociated_sums_are_shallow_and_accurate() {
+		String expression = "0.1" + "+0.1".repeat(99999);
+		Calculator calculator = new Calculator(EvaluationMode.RECURSIVE);
+		CompiledExpression chain = new Calculator(EvaluationMode.STACK_SAFE).compile(expression);
+		CompiledExpression balanced = calculator.compile(expression).reassociate(Reassociation.BALANCED);
+		CompiledExpression compensated = calculator.compile(expression).reassociate(Reassociation.COMPENSATED);
+
+		assertTrue(Math.abs(chain.evaluate() - 10000) > 1e-9);
+		assertEquals(10000, balanced.evaluate(), 1e-10);
+		assertEquals(10000.0, compensated.evaluate());
+		assertEquals(10000.0, compensated.simplify().evaluate());
+	}
+	
+	@Test
+	void test_compensated_sum_compiles_to_streaming_postfix_steps() {
+		CompiledExpression compensated = new Calculator(EvaluationMode.STACK_SAFE)
+				.compile("x" + "-0.1+x".repeat(9999), "x").reassociate(Reassociation.COMPENSATED);
+		PostfixProgram program = PostfixProgram.compile(compensated.getRoot());
+		assertEquals(3, program.getMaximumStackDepth());
+		assertEquals(5000.1, program.evaluate(new double[] { 0.6 }), 1e-11);
+		
+		double[] out = new double[3000];
+		compensated.evaluate(new double[][] { new double[3000] }, out);
+		assertEquals(-999.9, out[2999], 1e-12);
+	}
+	
+	@Test
+	void test_reassociation_keeps_signs_and_agrees_across_modes() {
+		String expression = "a-b+c*d*e*f*a-(g-h)-(a+b*(c-d))+e/f*g*h";
+		double[] bindings = { 1.5, -2.25, 3, 0.5, -4, 7, 2.5, -1.25 };
+		Calculator calculator = new Calculator(EvaluationMode.STACK_SAFE);
+		CompiledExpression original = calculator.compile(expression, "a", "b", "c", "d", "e", "f", "g", "h");
+		double expected = original.evaluate(bindings);
+
+		for (Reassociation reassociation : Reassociation.values()) {
+			CompiledExpression regrouped = original.reassociate(reassociation);
+			assertEquals(expected, regrouped.evaluate(bindings), 1e-12);
+			assertEquals(expected, regrouped.compileToBytecode().evaluate(bindings), 1e-12);
+
+			double[][] columns = new double[bindings.length][];
+			for (int i = 0; i < bindings.length; i++) {
+				columns[i] = new double[] { bindings[i], bindings[i] * 2 };
+			}
+			double[] out = new double[2];
+			regrouped.evaluate(columns, out);
+			assertEquals(regrouped.evaluate(bindings), out[0]);
+			assertEquals(original.evaluate(columns[0][1], columns[1][1], columns[2][1], columns[3][1], 
+					columns[4][1], columns[5][1], columns[6][1], columns[7][1]), out[1], 1e-9);
+		}
+	}
+	
+	@Test
+	void test_balancing_leaves_short_parser_runs_unchanged() {
+		CompiledExpression original = new Calculator().compile("x-y+z", "x", "y", "z");
+		CompiledExpression balanced = original.reassociate(Reassociation.BALANCED);
+		for (double x = -1; x <= 1; x += 0.37) {
+			assertEquals(original.evaluate(x, 0.1, 1e16), balanced.evaluate(x, 0.1, 1e16));
+			assertEquals(original.evaluate(1e16, x, 0.3), balanced.evaluate(1e16, x, 0.3));
+		}
+	}
+	
+	
+	
+	// Test in-place number parsing
+	@Test
+	void test_number_parser_matches_parse_double_on_hard_cases() {
+		String[] literals = { "0", "-0", "0.0e5", "1", "123.", ".5", "-.5e+2", "00012.5000e-0003", "0.1", "1e23", "8.41e21",
+				"9007199254740993", "9007199254740992.5", "9223372036854775807", "18446744073709551615", "99999999999999999999",
+				"123456789012345678901234567890", "1.00000000000000011102230246251565404236316680908203125",
+				"1.00000000000000011102230246251565404236316680908203124", "2.2250738585072011e-308", "2.2250738585072012e-308",
+				"4.9e-324", "2.4703282292062327e-324", "2.4703282292062328e-324", "1.7976931348623157e308",
+				"1.7976931348623158e308", "1.7976931348623159e308", "1e-400", "1e400", "0e999999999", "7.038531e-26" };
+		for (String literal : literals) {
+			assertEquals(Double.doubleToRawLongBits(Double.parseDouble(literal)), 
+					Double.doubleToRawLongBits(NumberParser.parse("(" + literal + ")", 1, literal.length() + 1)), literal);
+		}
+	}
+	
+	@Test
+	void test_number_parser_matches_parse_double_on_random_literals() {
+		Random random = new Random(24);
+		for (int i = 0; i < 200000; i++) {
+			String literal;
+			if (i % 3 == 0) {
+				literal = Double.toString(Double.longBitsToDouble(random.nextLong() & 0x7FEFFFFFFFFFFFFFL));
+			}
+			else if (i % 3 == 1) {
+				literal = random.nextInt(1000000) + "e" + (random.nextInt(700) - 350);
+			}
+			else {
+				StringBuilder digits = new StringBuilder();
+				int length = 1 + random.nextInt(30);
+				for (int d = 0; d < length; d++) {
+					digits.append((char) ('0' + random.nextInt(10)));
+				}
+				digits.insert(random.nextInt(length + 1), '.');
+				literal = digits.toString();
+			}
+			assertEquals(Double.doubleToRawLongBits(Double.parseDouble(literal)), 
+					Double.doubleToRawLongBits(NumberParser.parse(literal, 0, literal.length())), literal);
+		}
+	}
+	
+	@Test
+	void test_number_parser_falls_back_for_other_text() {
+		assertEquals(Double.POSITIVE_INFINITY, NumberParser.parse("Infinity", 0, 8));
+		assertEquals(2.5, NumberParser.parse(" 2.5d", 0, 5));
+		assertEquals(8.0, NumberParser.parse("0x1p3", 0, 5));
+		assertThrows(NumberFormatException.class, () -> NumberParser.parse("1e", 0, 2));
+		assertThrows(NumberFormatException.class, () -> NumberParser.parse(".", 0, 1));
+		assertThrows(NumberFormatException.class, () -> NumberParser.parse("1.2.3", 0, 5));
+	}
+	
+	
+	
+	// Test tryEvaluate
+	@Test
+	void test_tryEvaluate_returns_values_and_positioned_errors() {
+		Calculator calculator = new Calculator();
+		assertTrue(calculator.tryEvaluate("2^3 + (1 - -2) * 2").isSuccess());
+		assertEquals(14.0, calculator.tryEvaluate("2^3 + (1 - -2) * 2").getValue());
+		assertEquals(0.0, calculator.tryEvaluate("  ").getValue());
+
+		EvaluationResult result = calculator.tryEvaluate("1 +");
+		assertFalse(result.isSuccess());
+		assertTrue(Double.isNaN(result.getValue()));
+		assertEquals(EvaluationError.UNEXPECTED_END, result.getError());
+		assertEquals(3, result.getPosition());
+		assertEquals("Unexpected end of expression", result.getMessage());
+
+		assertEquals(EvaluationError.INVALID_CHARACTER, calculator.tryEvaluate("2 $ 3").getError());
+		assertEquals(2, calculator.tryEvaluate("2 $ 3").getPosition());
+		assertEquals(EvaluationError.UNEXPECTED_TOKEN, calculator.tryEvaluate("2*)").getError());
+		assertEquals(2, calculator.tryEvaluate("2*)").getPosition());
+		assertEquals(EvaluationError.UNMATCHED_PARENTHESIS, calculator.tryEvaluate("(1)+2)").getError());
+		assertEquals(5, calculator.tryEvaluate("(1)+2)").getPosition());
+		assertEquals(EvaluationError.MISSING_PARENTHESIS, calculator.tryEvaluate("2 + (3 * 4").getError());
+		assertEquals(10, calculator.tryEvaluate("2 + (3 * 4").getPosition());
+		assertEquals(EvaluationError.UNKNOWN_VARIABLE, new Calculator(16).tryEvaluate("1 + x").getError());
+		assertEquals("Unknown variable 'x' at position 4", new Calculator(16).tryEvaluate("1 + x").getMessage());
+	}
+	
+	@Test
+	void test_tryEvaluate_agrees_with_evaluate_on_random_input() {
+		assertAgreesWithUncachedEvaluate(new Calculator(), false);
+	}
+	
+	@Test
+	void test_cached_calculator_agrees_with_uncached_evaluate_on_random_input() {
+		assertAgreesWithUncachedEvaluate(new Calculator(4096), false);
+		assertAgreesWithUncachedEvaluate(new Calculator(4096), true);
+	}
+	
+	/**
+	 * Checks evaluate and tryEvaluate of the calculator against evaluate without a cache on random input,
+	 * optionally warming the calculator's cache with each expression stripped of its whitespace first.
+	 */
+	private static void assertAgreesWithUncachedEvaluate(Calculator calculator, boolean warmWithoutWhitespace) {
+		String[] pieces = {"1", "2.5", "3e2", "x", "e", "+", "-", "*", "/", "^", "(", ")", " ", "$", "."};
+		Calculator reference = new Calculator();
+		Random random = new Random(25);
+		for (int i = 0; i < 50000; i++) {
+			StringBuilder builder = new StringBuilder();
+			int length = random.nextInt(10);
+			for (int p = 0; p < length; p++) {
+				builder.append(pieces[random.nextInt(pieces.length)]);
+			}
+			String expression = builder.toString();
+			if (warmWithoutWhitespace) {
+				calculator.tryEvaluate(expression.replace(" ", ""));
+				try {
+					calculator.compile(expression.replace(" ", ""));
+				}
+				catch (IllegalArgumentException e) {
+					// Malformed without whitespace too; nothing is cached
+				}
+			}
+			EvaluationResult result = calculator.tryEvaluate(expression);
+			try {
+				double expected = reference.evaluate(expression);
+				assertTrue(result.isSuccess(), expression);
+				assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(result.getValue()), expression);
+				assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(calculator.evaluate(expression)), expression);
+			}
+			catch (IllegalArgumentException e) {
+				assertFalse(result.isSuccess(), expression);
+				assertEquals(e.getMessage(), result.getMessage(), expression);
+				assertEquals(e.getMessage(), assertThrows(IllegalArgumentException.class, () -> calculator.evaluate(expression)).getMessage(), expression);
+			}
+		}
+	}
+	
+	@Test
+	void test_default_tryEvaluate_reports_the_exception_message() {
+		ICalculator calculator = expression -> new Calculator().evaluate(expression);
+		assertEquals(5.0, calculator.tryEvaluate("2+3").getValue());
+		EvaluationResult result = calculator.tryEvaluate("2+");
+		assertEquals(EvaluationError.INVALID_EXPRESSION, result.getError());
+		assertEquals(-1, result.getPosition());
+		assertEquals("Unexpected end of expression", result.getMessage());
+	}
+}